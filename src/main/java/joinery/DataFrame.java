@@ -44,6 +44,7 @@ import java.util.Set;
 
 import com.codahale.metrics.annotation.Timed;
 
+import joinery.Filters.Filter;
 import joinery.impl.Aggregation;
 import joinery.impl.BlockManager;
 import joinery.impl.Combining;
@@ -53,6 +54,7 @@ import joinery.impl.Display;
 import joinery.impl.Grouping;
 import joinery.impl.Index;
 import joinery.impl.Inspection;
+import joinery.impl.KeyIndex;
 import joinery.impl.Pivoting;
 import joinery.impl.Selection;
 import joinery.impl.Serialization;
@@ -592,13 +594,9 @@ implements Iterable<List<V>> {
      */
     @Timed
     public DataFrame<V> append(final Object name, final List<? extends V> row) {
-        final int len = length();
-        index.add(name, len);
+        index.add(name, length());
         columns.extend(row.size());
-        data.reshape(columns.names().size(), len + 1);
-        for (int c = 0; c < data.size(); c++) {
-            data.set(c < row.size() ? row.get(c) : null, c, len);
-        }
+        data.append(row);
         return this;
     }
 
@@ -701,7 +699,7 @@ implements Iterable<List<V>> {
      * @return the result of the join operation as a new data frame
      */
     public final DataFrame<V> join(final DataFrame<V> other, final JoinType join, final KeyFunction<V> on) {
-        return Combining.join(this, other, join, on);
+        return joined(Combining.join(this, data, other, other.data, join, on));
     }
 
     /**
@@ -727,7 +725,7 @@ implements Iterable<List<V>> {
      * @return the result of the join operation as a new data frame
      */
     public final DataFrame<V> joinOn(final DataFrame<V> other, final JoinType join, final Integer ... cols) {
-        return Combining.joinOn(this, other, join, cols);
+        return joined(Combining.joinOn(this, data, other, other.data, join, false, cols));
     }
 
     /**
@@ -756,6 +754,259 @@ implements Iterable<List<V>> {
         return joinOn(other, join, columns.indices(cols));
     }
 
+    /**
+     * Return a new data frame created by performing a merge join of this
+     * data frame with the argument using the specified join type and the
+     * column values as the join key.  Both data frames must be sorted in
+     * ascending order on the join columns, which allows them to be joined
+     * in a single pass without building a hash table.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> left = new DataFrame<>("time", "price");
+     * > left.append(Arrays.asList(1, 10.0));
+     * > left.append(Arrays.asList(2, 11.0));
+     * > left.append(Arrays.asList(4, 12.0));
+     * > DataFrame<Object> right = new DataFrame<>("time", "volume");
+     * > right.append(Arrays.asList(2, 100));
+     * > right.append(Arrays.asList(3, 200));
+     * > right.append(Arrays.asList(4, 300));
+     * > left.joinSortedOn(right, DataFrame.JoinType.INNER, 0)
+     * >     .col("volume");
+     * [100, 300] }</pre>
+     *
+     * {@link #joinOn(DataFrame, JoinType, Integer...)} only uses a merge
+     * join when both data frames were returned by {@link #sortBy(Object...)}
+     * and not modified since, it does not scan other data frames to find
+     * out whether they happen to be sorted.
+     *
+     * @param other the other data frame
+     * @param join the join type
+     * @param cols the indices of the columns to use as the join key
+     * @return the result of the join operation as a new data frame
+     * @throws IllegalArgumentException if either data frame is not sorted
+     */
+    public final DataFrame<V> joinSortedOn(final DataFrame<V> other, final JoinType join, final Integer ... cols) {
+        return joined(Combining.joinOn(this, data, other, other.data, join, true, cols));
+    }
+
+    /**
+     * Return a new data frame created by performing a merge join of this
+     * data frame with the argument using the specified join type and the
+     * column values as the join key.  Both data frames must be sorted in
+     * ascending order on the join columns.
+     *
+     * @param other the other data frame
+     * @param join the join type
+     * @param cols the names of the columns to use as the join key
+     * @return the result of the join operation as a new data frame
+     * @throws IllegalArgumentException if either data frame is not sorted
+     */
+    public final DataFrame<V> joinSortedOn(final DataFrame<V> other, final JoinType join, final Object ... cols) {
+        return joinSortedOn(other, join, columns.indices(cols));
+    }
+
+    /**
+     * Return a new data frame created by joining each row of this data
+     * frame with the last row of the argument whose value in the specified
+     * column is less than or equal to the row's value, such as the latest
+     * quote for each trade.  Rows without a match have {@code null}
+     * values for the columns of the argument.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> quotes = new DataFrame<>("time", "bid");
+     * > quotes.append(Arrays.asList(1L, 9.5));
+     * > quotes.append(Arrays.asList(5L, 9.7));
+     * > DataFrame<Object> trades = new DataFrame<>("time", "price");
+     * > trades.append(Arrays.asList(2L, 9.6));
+     * > trades.append(Arrays.asList(6L, 9.8));
+     * > trades.append(Arrays.asList(0L, 9.4));
+     * > trades.joinAsof(quotes, "time")
+     * >       .col("bid");
+     * [9.5, 9.7, null] }</pre>
+     *
+     * @param other the other data frame
+     * @param on the name of the number or date column in both data frames
+     * @return the result of the join operation as a new data frame
+     */
+    public final DataFrame<V> joinAsof(final DataFrame<V> other, final Object on) {
+        return joinAsof(other, on, new Object[0], AsofDirection.BACKWARD, null);
+    }
+
+    /**
+     * Return a new data frame created by joining each row of this data
+     * frame with the row of the argument whose value in the {@code on}
+     * column is nearest to the row's value in the specified direction,
+     * considering only rows of the argument with the same values in the
+     * {@code by} columns.  Neither data frame needs to be sorted, the
+     * argument is sorted once and each row is matched by binary search.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> quotes = new DataFrame<>("sym", "time", "bid");
+     * > quotes.append(Arrays.asList("a", 1L, 9.5));
+     * > quotes.append(Arrays.asList("b", 2L, 20.1));
+     * > quotes.append(Arrays.asList("a", 8L, 9.7));
+     * > DataFrame<Object> trades = new DataFrame<>("sym", "time", "price");
+     * > trades.append(Arrays.asList("a", 3L, 9.6));
+     * > trades.append(Arrays.asList("b", 3L, 20.0));
+     * > trades.append(Arrays.asList("a", 9L, 9.8));
+     * > trades.joinAsof(quotes, "time", new Object[] { "sym" }, DataFrame.AsofDirection.NEAREST, 1)
+     * >       .col("bid");
+     * [null, 20.1, 9.7] }</pre>
+     *
+     * @param other the other data frame
+     * @param on the name of the number or date column in both data frames
+     * @param by the names of the columns that must be equal, possibly empty
+     * @param direction whether to match the nearest preceding,
+     *        following or closest value
+     * @param tolerance the maximum distance between matching values
+     *        (in milliseconds for dates) or {@code null} for no limit
+     * @return the result of the join operation as a new data frame
+     */
+    public final DataFrame<V> joinAsof(final DataFrame<V> other, final Object on, final Object[] by,
+            final AsofDirection direction, final Number tolerance) {
+        return joined(Combining.joinAsof(
+                this, data, other, other.data,
+                columns.get(on), other.columns.get(on),
+                columns.indices(by), other.columns.indices(by),
+                direction, tolerance
+            ));
+    }
+
+    /**
+     * Return the rows of this data frame whose values in the specified
+     * columns are also present in the argument.  Unlike a join, no
+     * columns of the argument are included and each row is returned
+     * at most once, so only the distinct keys of the argument are stored.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> orders = new DataFrame<>("customer", "amount");
+     * > orders.append(Arrays.asList("alice", 10));
+     * > orders.append(Arrays.asList("bob", 20));
+     * > orders.append(Arrays.asList("carol", 30));
+     * > DataFrame<Object> customers = new DataFrame<>("customer");
+     * > customers.append(Arrays.asList("carol"));
+     * > customers.append(Arrays.asList("alice"));
+     * > orders.semiJoin(customers, "customer")
+     * >       .col("amount");
+     * [10, 30] }</pre>
+     *
+     * @param other the other data frame
+     * @param cols the names of the key columns, present in both data frames
+     * @return the matching rows of this data frame
+     * @see joinery.impl.Combining#setPrefilterThreshold(int)
+     */
+    public final DataFrame<V> semiJoin(final DataFrame<V> other, final Object ... cols) {
+        return take(Combining.semiJoin(data, columns.indices(cols), other.data, other.columns.indices(cols), false));
+    }
+
+    /**
+     * Return the rows of this data frame whose values in the specified
+     * columns are also present in the argument.
+     *
+     * @param other the other data frame
+     * @param cols the indices of the key columns in both data frames
+     * @return the matching rows of this data frame
+     */
+    public final DataFrame<V> semiJoin(final DataFrame<V> other, final Integer ... cols) {
+        return take(Combining.semiJoin(data, cols, other.data, cols, false));
+    }
+
+    /**
+     * Return the rows of this data frame whose values in the specified
+     * columns are not present in the argument.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> orders = new DataFrame<>("customer", "amount");
+     * > orders.append(Arrays.asList("alice", 10));
+     * > orders.append(Arrays.asList("bob", 20));
+     * > orders.append(Arrays.asList("carol", 30));
+     * > DataFrame<Object> customers = new DataFrame<>("customer");
+     * > customers.append(Arrays.asList("carol"));
+     * > customers.append(Arrays.asList("alice"));
+     * > orders.antiJoin(customers, "customer")
+     * >       .col("amount");
+     * [20] }</pre>
+     *
+     * @param other the other data frame
+     * @param cols the names of the key columns, present in both data frames
+     * @return the rows of this data frame without a match
+     */
+    public final DataFrame<V> antiJoin(final DataFrame<V> other, final Object ... cols) {
+        return take(Combining.semiJoin(data, columns.indices(cols), other.data, other.columns.indices(cols), true));
+    }
+
+    /**
+     * Return the rows of this data frame whose values in the specified
+     * columns are not present in the argument.
+     *
+     * @param other the other data frame
+     * @param cols the indices of the key columns in both data frames
+     * @return the rows of this data frame without a match
+     */
+    public final DataFrame<V> antiJoin(final DataFrame<V> other, final Integer ... cols) {
+        return take(Combining.semiJoin(data, cols, other.data, cols, true));
+    }
+
+    /**
+     * Return an index of the rows of this data frame by the values
+     * of the specified columns for joining with other data frames.
+     * The index is built once and can be reused by many joins, and
+     * shared between threads, since it holds its own copy of the rows.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> products = new DataFrame<>("sku", "name");
+     * > products.append(Arrays.asList(1, "apple"));
+     * > products.append(Arrays.asList(2, "pear"));
+     * > DataFrame.JoinIndex<Object> index = products.joinIndex("sku");
+     * > DataFrame<Object> sales = new DataFrame<>("sku", "qty");
+     * > sales.append(Arrays.asList(2, 5));
+     * > sales.append(Arrays.asList(1, 3));
+     * > sales.join(index).col("name");
+     * [pear, apple] }</pre>
+     *
+     * @param cols the names of the key columns
+     * @return the join index
+     */
+    public final JoinIndex<V> joinIndex(final Object ... cols) {
+        return new JoinIndex<>(new KeyIndex<>(columns.names(), data, columns.indices(cols)));
+    }
+
+    /**
+     * Return a new data frame created by performing a left outer join of
+     * this data frame with the rows of the index, using the columns of this
+     * data frame with the same names as the index key columns.
+     *
+     * @param index the join index
+     * @return the result of the join operation as a new data frame
+     */
+    public final DataFrame<V> join(final JoinIndex<V> index) {
+        return join(index, JoinType.LEFT);
+    }
+
+    /**
+     * Return a new data frame created by performing a join of this
+     * data frame with the rows of the index using the specified join type.
+     * The result is the same as joining with the indexed data frame
+     * on the key columns.
+     *
+     * @param index the join index
+     * @param join the join type
+     * @return the result of the join operation as a new data frame
+     */
+    public final DataFrame<V> join(final JoinIndex<V> index, final JoinType join) {
+        return joined(index.index.join(columns.names(), data, columns.indices(index.keys()), join));
+    }
+
+    private static <V> DataFrame<V> joined(final Combining.Joined<V> joined) {
+        final BlockManager<V> data = joined.data();
+        return new DataFrame<>(
+                new Index(joined.index(), data.length()),
+                new Index(joined.columns(), data.size()),
+                data,
+                new Grouping()
+            );
+    }
+
     /**
      * Return a new data frame created by performing a left outer join of this
      * data frame with the argument using the common, non-numeric columns
@@ -814,7 +1065,15 @@ implements Iterable<List<V>> {
      */
     @SafeVarargs
     public final DataFrame<V> concat(final DataFrame<? extends V> ... others) {
-        return Combining.concat(this, others);
+        final List<Set<Object>> names = new ArrayList<>(others.length + 1);
+        final List<BlockManager<? extends V>> blocks = new ArrayList<>(others.length + 1);
+        names.add(columns());
+        blocks.add(data);
+        for (final DataFrame<? extends V> other : others) {
+            names.add(other.columns());
+            blocks.add(other.data);
+        }
+        return Combining.concat(names, blocks);
     }
 
     /**
@@ -924,7 +1183,7 @@ implements Iterable<List<V>> {
      * @return the value
      */
     public V get(final Object row, final Object col) {
-        return get(index.get(row), columns.get(col));
+        return data.get(columns.position(col), index.position(row));
     }
 
     /**
@@ -989,7 +1248,7 @@ implements Iterable<List<V>> {
      * @param value the new value
      */
     public void set(final Object row, final Object col, final V value) {
-        set(index.get(row), columns.get(col), value);
+        data.set(value, columns.position(col), index.position(row));
     }
 
     /**
@@ -1120,7 +1379,7 @@ implements Iterable<List<V>> {
      * @return a subset of the data frame
      */
     public DataFrame<V> select(final Predicate<V> predicate) {
-        final SparseBitSet selected = Selection.select(this, predicate);
+        final int[] selected = Selection.select(this, predicate);
         return new DataFrame<>(
                 Selection.select(index, selected),
                 columns,
@@ -1129,6 +1388,54 @@ implements Iterable<List<V>> {
             );
     }
 
+    /**
+     * Select a subset of the data frame using a column filter.  Each
+     * comparison is evaluated over a whole column at once, which is much
+     * faster than calling a predicate for each row.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>("price", "region");
+     * > df.append(Arrays.asList(150.0, "EU"));
+     * > df.append(Arrays.asList(80.0, "EU"));
+     * > df.append(Arrays.asList(120.0, "US"));
+     * > df.select(Filters.col("price").gt(100)
+     * >           .and(Filters.col("region").eq("EU")))
+     * >   .col("price");
+     * [150.0] }</pre>
+     *
+     * @param filter the condition for rows to be included in the subset
+     * @return a subset of the data frame
+     * @see Filters#col(Object)
+     */
+    public DataFrame<V> select(final Filter filter) {
+        return take(Filters.select(filter, columns, data));
+    }
+
+    /**
+     * Return a lazy frame for building a query over this data frame.
+     * The operations are only performed when the result is collected,
+     * after filters have been moved ahead of the other operations and
+     * unused columns removed.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>("name", "value");
+     * > df.append(Arrays.asList("alpha", 1));
+     * > df.append(Arrays.asList("bravo", 2));
+     * > df.append(Arrays.asList("charlie", 3));
+     * > df.lazy()
+     * >   .select(Filters.col("value").gt(1))
+     * >   .retain("name")
+     * >   .collect()
+     * >   .col("name");
+     * [bravo, charlie] }</pre>
+     *
+     * @return a lazy frame reading from this data frame
+     * @see LazyFrame#explain()
+     */
+    public LazyFrame<V> lazy() {
+        return LazyFrame.of(this);
+    }
+
     /**
      * Return a data frame containing the first ten rows of this data frame.
      *
@@ -1326,11 +1633,13 @@ implements Iterable<List<V>> {
      */
     public DataFrame<V> convert() {
         Conversion.convert(this);
+        data.compact();
         return this;
     }
 
     public DataFrame<V> convert(final NumberDefault numDefault, final String naString) {
         Conversion.convert(this,numDefault,naString);
+        data.compact();
         return this;
     }
 
@@ -1358,6 +1667,7 @@ implements Iterable<List<V>> {
     @SafeVarargs
     public final DataFrame<V> convert(final Class<? extends V> ... columnTypes) {
         Conversion.convert(this, columnTypes);
+        data.compact();
         return this;
     }
 
@@ -1531,7 +1841,7 @@ implements Iterable<List<V>> {
                 index,
                 columns,
                 data,
-                new Grouping(this, cols)
+                new Grouping(data, cols)
             );
     }
 
@@ -1564,8 +1874,8 @@ implements Iterable<List<V>> {
      */
     public Map<Object, DataFrame<V>> explode() {
         final Map<Object, DataFrame<V>> exploded = new LinkedHashMap<>();
-        for (final Map.Entry<Object, SparseBitSet> entry : groups) {
-            final SparseBitSet selected = entry.getValue();
+        for (final Map.Entry<Object, int[]> entry : groups) {
+            final int[] selected = entry.getValue();
             exploded.put(entry.getKey(), new DataFrame<V>(
                     Selection.select(index, selected),
                     columns,
@@ -1587,6 +1897,43 @@ implements Iterable<List<V>> {
         return groups.apply(this, function);
     }
 
+    /**
+     * Apply several aggregate functions to each group, or the entire
+     * data frame if the data is not grouped, in a single pass over
+     * each column.  The resulting columns are named by lists of
+     * the column name and the lower case function class name.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>(
+     * >         Collections.emptyList(),
+     * >         Arrays.asList("name", "value"),
+     * >         Arrays.asList(
+     * >                 Arrays.<Object>asList("alpha", "alpha", "alpha", "bravo", "bravo"),
+     * >                 Arrays.<Object>asList(1, 2, 3, 4, 5)
+     * >             )
+     * >     );
+     * > Map<Object, List<Aggregate<Object, ?>>> aggregates = new HashMap<>();
+     * > aggregates.put("value", Arrays.<Aggregate<Object, ?>>asList(
+     * >         new joinery.impl.Aggregation.Sum<Object>(),
+     * >         new joinery.impl.Aggregation.Max<Object>()
+     * >     ));
+     * > df.groupBy("name")
+     * >   .agg(aggregates)
+     * >   .columns();
+     * [name, [value, sum], [value, max]]} </pre>
+     *
+     * @param aggregates the aggregate functions for each column name
+     * @return the new data frame
+     */
+    @Timed
+    public DataFrame<V> agg(final Map<?, ? extends List<? extends Aggregate<V, ?>>> aggregates) {
+        final Map<Integer, List<? extends Aggregate<V, ?>>> functions = new LinkedHashMap<>();
+        for (final Map.Entry<?, ? extends List<? extends Aggregate<V, ?>>> entry : aggregates.entrySet()) {
+            functions.put(columns.get(entry.getKey()), entry.getValue());
+        }
+        return groups.aggregate(this, functions);
+    }
+
     @Timed
     public DataFrame<V> count() {
         return groups.apply(this, new Aggregation.Count<V>());
@@ -1799,6 +2146,55 @@ implements Iterable<List<V>> {
     }
 
     public DataFrame<V> sortBy(final Object ... cols) {
+        return sort(sortColumns(cols));
+    }
+
+    @Timed
+    public DataFrame<V> sortBy(final Integer ... cols) {
+        return sort(sortColumns(cols));
+    }
+
+    /**
+     * Return the rows in sorted order, remembering the ascending
+     * key columns so a later {@link #joinOn(DataFrame, JoinType, Integer...)}
+     * can merge join without checking the order.
+     */
+    private DataFrame<V> sort(final Map<Integer, SortDirection> sortCols) {
+        final DataFrame<V> sorted = take(Sorting.sort(data, sortCols));
+        sorted.data.setSorted(Sorting.ascending(sorted.data, sortCols));
+        return sorted;
+    }
+
+    public DataFrame<V> sortBy(final Comparator<List<V>> comparator) {
+        return take(argsort(comparator));
+    }
+
+    /**
+     * Return the positions of the rows in the order given by the
+     * specified columns, prefix a column name with {@code -} to
+     * sort it in descending order.  Rows with equal keys keep
+     * their relative order.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>(
+     * >         Collections.emptyList(),
+     * >         Arrays.asList("name", "value"),
+     * >         Arrays.asList(
+     * >                 Arrays.<Object>asList("alpha", "bravo", "charlie", "delta"),
+     * >                 Arrays.<Object>asList(3, 1, 4, 1)
+     * >             )
+     * >     );
+     * > Arrays.toString(df.argsort("-value", "name"));
+     * [2, 0, 1, 3] } </pre>
+     *
+     * @param cols the column names
+     * @return the sorted row positions
+     */
+    public int[] argsort(final Object ... cols) {
+        return Sorting.sort(data, sortColumns(cols));
+    }
+
+    private Map<Integer, SortDirection> sortColumns(final Object ... cols) {
         final Map<Integer, SortDirection> sortCols = new LinkedHashMap<>();
         for (final Object col : cols) {
             final String str = col instanceof String ? String.class.cast(col) : "";
@@ -1807,24 +2203,133 @@ implements Iterable<List<V>> {
             final int c = columns.get(str.startsWith("-") ? str.substring(1) : col);
             sortCols.put(c, dir);
         }
-        return Sorting.sort(this, sortCols);
+        return sortCols;
     }
 
+    /**
+     * Return the positions of the rows in the order given by the
+     * specified column indices, negative indices sort in
+     * descending order.
+     *
+     * @param cols the column indices
+     * @return the sorted row positions
+     */
     @Timed
-    public DataFrame<V> sortBy(final Integer ... cols) {
+    public int[] argsort(final Integer ... cols) {
+        return Sorting.sort(data, sortColumns(cols));
+    }
+
+    private Map<Integer, SortDirection> sortColumns(final Integer ... cols) {
         final Map<Integer, SortDirection> sortCols = new LinkedHashMap<>();
         for (final int c : cols) {
             final SortDirection dir = c < 0 ?
                     SortDirection.DESCENDING : SortDirection.ASCENDING;
             sortCols.put(Math.abs(c), dir);
         }
-        return Sorting.sort(this, sortCols);
+        return sortCols;
     }
 
-    public DataFrame<V> sortBy(final Comparator<List<V>> comparator) {
+    /**
+     * Return the positions of the rows in the order
+     * given by the specified comparator.
+     *
+     * @param comparator the row comparator
+     * @return the sorted row positions
+     */
+    public int[] argsort(final Comparator<List<V>> comparator) {
         return Sorting.sort(this, comparator);
     }
 
+    /**
+     * Return the {@code n} rows with the largest values in the specified
+     * columns, in descending order, for each group or the entire data
+     * frame if the data is not grouped.  Of rows with equal values
+     * the first are included.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>(
+     * >         Collections.emptyList(),
+     * >         Arrays.asList("name", "value"),
+     * >         Arrays.asList(
+     * >                 Arrays.<Object>asList("alpha", "alpha", "alpha", "bravo", "bravo"),
+     * >                 Arrays.<Object>asList(1, 5, 3, 4, 2)
+     * >             )
+     * >     );
+     * > df.groupBy("name")
+     * >   .nlargest(1, "value")
+     * >   .col("value");
+     * [5, 4] } </pre>
+     *
+     * @param n the number of rows
+     * @param cols the column names
+     * @return the new data frame
+     */
+    @Timed
+    public DataFrame<V> nlargest(final int n, final Object ... cols) {
+        return top(n, SortDirection.DESCENDING, cols);
+    }
+
+    /**
+     * Return the {@code n} rows with the smallest values in the specified
+     * columns, in ascending order, for each group or the entire data
+     * frame if the data is not grouped.  Of rows with equal values
+     * the first are included.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>(
+     * >         Collections.emptyList(),
+     * >         Arrays.asList("name", "value"),
+     * >         Arrays.asList(
+     * >                 Arrays.<Object>asList("alpha", "alpha", "alpha", "bravo", "bravo"),
+     * >                 Arrays.<Object>asList(1, 5, 3, 4, 2)
+     * >             )
+     * >     );
+     * > df.nsmallest(2, "value")
+     * >   .col("value");
+     * [1, 2] } </pre>
+     *
+     * @param n the number of rows
+     * @param cols the column names
+     * @return the new data frame
+     */
+    @Timed
+    public DataFrame<V> nsmallest(final int n, final Object ... cols) {
+        return top(n, SortDirection.ASCENDING, cols);
+    }
+
+    private DataFrame<V> top(final int n, final SortDirection dir, final Object ... cols) {
+        final Map<Integer, SortDirection> sortCols = new LinkedHashMap<>();
+        for (final Object col : cols) {
+            sortCols.put(columns.get(col), dir);
+        }
+        return take(Sorting.top(data, sortCols, n, groups));
+    }
+
+    /**
+     * Return a new data frame with the rows at the specified
+     * positions in the order given, keeping their names.
+     *
+     * <pre> {@code
+     * > DataFrame<Object> df = new DataFrame<>(
+     * >         Arrays.<Object>asList("a", "b", "c"),
+     * >         Arrays.<Object>asList("value"),
+     * >         Arrays.asList(Arrays.<Object>asList(10, 20, 30))
+     * >     );
+     * > df.take(new int[] { 2, 0 }).index();
+     * [c, a] } </pre>
+     *
+     * @param rows the row positions
+     * @return the new data frame
+     */
+    public DataFrame<V> take(final int[] rows) {
+        return new DataFrame<>(
+                Selection.select(index, rows),
+                new Index(columns.names()),
+                Selection.select(data, rows),
+                new Grouping()
+            );
+    }
+
     /**
      * Return the types for each of the data frame columns.
      *
@@ -2165,6 +2670,30 @@ implements Iterable<List<V>> {
         return Serialization.readCsv(input, separator, longDefault, null);
     }
 
+    /**
+     * Sort the rows of a csv file by the specified columns and write
+     * them to another csv file, prefix a column name with {@code -} to
+     * sort it in descending order.  Rows are sorted in runs of about
+     * {@code memory} bytes that are written to temporary files and
+     * merged, so files much larger than memory can be sorted.
+     *
+     * @param input the csv file to sort
+     * @param output the file to write the sorted rows, which may be the input
+     * @param memory the approximate number of bytes of rows to sort in memory
+     * @param cols the names of the sort columns
+     * @throws IOException if an error occurs reading or writing the files
+     */
+    public static final void sortCsv(final String input, final String output, final long memory, final Object ... cols)
+    throws IOException {
+        sortCsv(input, output, ",", memory, cols);
+    }
+
+    public static final void sortCsv(final String input, final String output, final String separator,
+            final long memory, final Object ... cols)
+    throws IOException {
+        Serialization.sortCsv(input, separator, NumberDefault.LONG_DEFAULT, null, output, memory, cols);
+    }
+
     /**
      * Write the data from this data frame to
      * the specified file as comma separated values.
@@ -2363,6 +2892,33 @@ implements Iterable<List<V>> {
     public interface Aggregate<I, O>
     extends Function<List<I>, O> { }
 
+    /**
+     * An aggregate function that can be computed incrementally
+     * from partial results.
+     *
+     * <p>Implementors {@link #create()} an empty accumulator state,
+     * {@link #add(Object, Object)} values to it, {@link #merge(Object, Object)}
+     * states computed over disjoint parts of the data and
+     * {@link #finish(Object)} a state to obtain the aggregate result.
+     * Grouped data frames use these methods to aggregate all groups
+     * in a single scan without collecting the values of each group.</p>
+     *
+     * @param <I> the type of the input values
+     * @param <O> the type of the result
+     * @param <A> the type of the accumulator state
+     * @see DataFrame#aggregate(Aggregate)
+     */
+    public interface MergeableAggregate<I, O, A>
+    extends Aggregate<I, O> {
+        A create();
+
+        void add(A state, I value);
+
+        A merge(A state, A other);
+
+        O finish(A state);
+    }
+
     /**
      * An interface used to filter a {@linkplain DataFrame data frame}.
      *
@@ -2391,6 +2947,16 @@ implements Iterable<List<V>> {
         RIGHT
     }
 
+    /**
+     * An enumeration of the directions in which an as-of join
+     * searches for the nearest key.
+     */
+    public enum AsofDirection {
+        BACKWARD,
+        FORWARD,
+        NEAREST
+    }
+
     /**
      * An enumeration of plot types for displaying data frames with charts.
      */
@@ -2418,6 +2984,182 @@ implements Iterable<List<V>> {
         DOUBLE_DEFAULT
     }
 
+    /**
+     * An index of the rows of a data frame by the values of its key
+     * columns, built once by {@link DataFrame#joinIndex(Object...)}
+     * and then used to join any number of other data frames.
+     *
+     * @param <V> the type of the values in the indexed data frame
+     * @see DataFrame#join(JoinIndex, JoinType)
+     */
+    public static final class JoinIndex<V> {
+        private final KeyIndex<V> index;
+
+        private JoinIndex(final KeyIndex<V> index) {
+            this.index = index;
+        }
+
+        /**
+         * Return the column names of the indexed data frame.
+         *
+         * @return the column names
+         */
+        public List<Object> columns() {
+            return index.columns();
+        }
+
+        /**
+         * Return the names of the key columns.
+         *
+         * @return the key column names
+         */
+        public List<Object> keys() {
+            return index.keys();
+        }
+
+        /**
+         * Return the number of indexed rows.
+         *
+         * @return the number of rows
+         */
+        public int length() {
+            return index.length();
+        }
+    }
+
+    /**
+     * A builder for creating {@linkplain DataFrame data frames}
+     * from a large number of rows.
+     *
+     * <p>Rows are written directly into the column storage and
+     * the row index is created only once when {@link #build()} is
+     * called, making this considerably cheaper than repeated calls
+     * to {@link DataFrame#append(List)}.</p>
+     *
+     * <pre> {@code
+     * > DataFrame.Builder<Object> builder = new DataFrame.Builder<>(Arrays.asList("name", "value"), 2);
+     * > builder.append(Arrays.asList("alpha", 1));
+     * > builder.append(Arrays.asList("bravo", 2));
+     * > builder.build().length();
+     * 2 }</pre>
+     *
+     * @param <V> the type of the values in the data frame
+     */
+    public static final class Builder<V> {
+        private final Index columns;
+        private BlockManager<V> data;
+        private List<Object> names;
+        private int length = 0;
+
+        /**
+         * Construct a new builder for a data frame
+         * with the specified columns.
+         *
+         * @param columns the column names
+         */
+        public Builder(final Collection<?> columns) {
+            this(columns, 0);
+        }
+
+        /**
+         * Construct a new builder for a data frame with the specified
+         * columns and enough room for {@code capacity} rows.
+         *
+         * @param columns the column names
+         * @param capacity the expected number of rows
+         */
+        public Builder(final Collection<?> columns, final int capacity) {
+            this.data = new BlockManager<>();
+            this.data.reshape(columns.size(), 0);
+            this.data.ensureCapacity(capacity);
+            this.columns = new Index(columns, columns.size());
+        }
+
+        /**
+         * Append a row using the next position as the row name.
+         *
+         * @param row the row to append
+         * @return this builder
+         */
+        public Builder<V> append(final List<? extends V> row) {
+            return append(length, row);
+        }
+
+        /**
+         * Append a row indexed by the specified name.
+         *
+         * @param name the row name
+         * @param row the row to append
+         * @return this builder
+         */
+        public Builder<V> append(final Object name, final List<? extends V> row) {
+            if (data == null) {
+                throw new IllegalStateException("data frame has already been built");
+            }
+
+            // only keep names if they differ from the default
+            if (names == null && !Integer.valueOf(length).equals(name)) {
+                names = new ArrayList<>(length + 1);
+                for (int r = 0; r < length; r++) {
+                    names.add(r);
+                }
+            }
+            if (names != null) {
+                names.add(name);
+            }
+
+            columns.extend(row.size());
+            data.append(row);
+            length++;
+            return this;
+        }
+
+        /**
+         * Append a batch of rows using their positions as the row names.
+         *
+         * @param rows the rows to append
+         * @return this builder
+         */
+        public Builder<V> appendAll(final Collection<? extends List<? extends V>> rows) {
+            if (data != null) {
+                data.ensureCapacity(length + rows.size());
+            }
+            for (final List<? extends V> row : rows) {
+                append(row);
+            }
+            return this;
+        }
+
+        /**
+         * Return the number of rows appended so far.
+         *
+         * @return the number of rows
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Create the data frame.  The builder can not
+         * be used after the data frame is created.
+         *
+         * @return the new data frame
+         */
+        public DataFrame<V> build() {
+            if (data == null) {
+                throw new IllegalStateException("data frame has already been built");
+            }
+            final BlockManager<V> built = data;
+            data = null;
+            return new DataFrame<>(
+                    new Index(names != null ? names : Collections.emptyList(), length),
+                    columns,
+                    built,
+                    new Grouping()
+                );
+        }
+    }
+
     /**
      * Entry point to joinery as a command line tool.
      *
@@ -0,0 +1,346 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import joinery.impl.Block;
+import joinery.impl.BlockManager;
+import joinery.impl.Index;
+import joinery.impl.Operator;
+import joinery.impl.Parallel;
+
+/**
+ * Column expressions for selecting rows, evaluated one column at a
+ * time into words of bits that are then combined with bitwise
+ * operations.
+ *
+ * <pre> {@code
+ * import static joinery.Filters.col;
+ *
+ * df.select(col("price").gt(100).and(col("region").eq("EU")));
+ * }</pre>
+ *
+ * Comparisons never match {@code null} values, and neither does the
+ * negation of a condition on a column holding {@code null}, so
+ * {@code col("price").gt(100).not()} selects the same rows as
+ * {@code col("price").le(100)} apart from {@code NaN}.  Numbers are
+ * compared by value regardless of their type, like the primitive
+ * operators, and other values are compared if they are comparable with
+ * the argument.  Values that can not be ordered, such as {@code NaN},
+ * only match {@link Column#ne(Object)} and negated conditions, like
+ * {@code !(x > 100)} in Java.
+ */
+public class Filters {
+    public static Column col(final Object name) {
+        return new Column(name);
+    }
+
+    public static final class Column {
+        private final Object name;
+
+        private Column(final Object name) {
+            this.name = name;
+        }
+
+        public Filter eq(final Object value) {
+            return compare(Operator.EQ, value);
+        }
+
+        public Filter ne(final Object value) {
+            return compare(Operator.NE, value);
+        }
+
+        public Filter lt(final Object value) {
+            return compare(Operator.LT, value);
+        }
+
+        public Filter le(final Object value) {
+            return compare(Operator.LE, value);
+        }
+
+        public Filter gt(final Object value) {
+            return compare(Operator.GT, value);
+        }
+
+        public Filter ge(final Object value) {
+            return compare(Operator.GE, value);
+        }
+
+        public Filter between(final Object low, final Object high) {
+            return ge(low).and(le(high));
+        }
+
+        public Filter in(final Object ... values) {
+            for (final Object value : values) {
+                check(value);
+            }
+            return new Compare(name, Operator.EQ, values.clone());
+        }
+
+        public Filter isNull() {
+            return new Missing(name);
+        }
+
+        public Filter notNull() {
+            return new Missing(name).not();
+        }
+
+        private Filter compare(final Operator op, final Object value) {
+            check(value);
+            return new Compare(name, op, new Object[] { value });
+        }
+
+        private static void check(final Object value) {
+            if (value == null) {
+                throw new IllegalArgumentException("comparison with null, use isNull() or notNull()");
+            }
+        }
+    }
+
+    /**
+     * A condition on the values of a data frame, evaluated
+     * to a bit for each row of the data frame.
+     */
+    public abstract static class Filter {
+        Filter() {
+        }
+
+        public Filter and(final Filter other) {
+            return new Combined(this, other, true);
+        }
+
+        public Filter or(final Filter other) {
+            return new Combined(this, other, false);
+        }
+
+        public Filter not() {
+            return new Not(this);
+        }
+
+        /**
+         * Return the words of bits set for the rows of
+         * the data that satisfy this condition.
+         */
+        abstract long[] evaluate(Index columns, BlockManager<?> data);
+
+        /**
+         * Return the names of the columns used by this condition,
+         * or {@code null} if they are not known.
+         */
+        public Set<Object> columns() {
+            return null;
+        }
+    }
+
+    private static final class Compare
+    extends Filter {
+        private final Object name;
+        private final Operator op;
+        private final Object[] values;
+
+        private Compare(final Object name, final Operator op, final Object[] values) {
+            this.name = name;
+            this.op = op;
+            this.values = values;
+        }
+
+        @Override
+        long[] evaluate(final Index columns, final BlockManager<?> data) {
+            final Block<?> block = data.block(columns.get(name));
+            final long[] words = new long[words(data.length())];
+            Parallel.apply(bounds(data.length()), new Parallel.RangeFunction<Void>() {
+                @Override
+                public Void apply(final int start, final int end) {
+                    // each value sets more bits in the same words
+                    for (final Object value : values) {
+                        block.select(op, value, start, end, words, 0);
+                    }
+                    return null;
+                }
+            });
+            return words;
+        }
+
+        @Override
+        public Set<Object> columns() {
+            return Collections.singleton(name);
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + op + " " +
+                    (values.length == 1 ? values[0] : Arrays.toString(values));
+        }
+    }
+
+    private static final class Missing
+    extends Filter {
+        private final Object name;
+
+        private Missing(final Object name) {
+            this.name = name;
+        }
+
+        @Override
+        long[] evaluate(final Index columns, final BlockManager<?> data) {
+            final Block<?> block = data.block(columns.get(name));
+            final long[] words = new long[words(data.length())];
+            Parallel.apply(bounds(data.length()), new Parallel.RangeFunction<Void>() {
+                @Override
+                public Void apply(final int start, final int end) {
+                    for (int r = start; r < end; r++) {
+                        if (block.isNull(r)) {
+                            words[r >>> 6] |= 1L << r;
+                        }
+                    }
+                    return null;
+                }
+            });
+            return words;
+        }
+
+        @Override
+        public Set<Object> columns() {
+            return Collections.singleton(name);
+        }
+
+        @Override
+        public String toString() {
+            return name + " IS NULL";
+        }
+    }
+
+    private static final class Combined
+    extends Filter {
+        private final Filter left;
+        private final Filter right;
+        private final boolean and;
+
+        private Combined(final Filter left, final Filter right, final boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        long[] evaluate(final Index columns, final BlockManager<?> data) {
+            final long[] words = left.evaluate(columns, data);
+            final long[] other = right.evaluate(columns, data);
+            for (int w = 0; w < words.length; w++) {
+                words[w] = and ? words[w] & other[w] : words[w] | other[w];
+            }
+            return words;
+        }
+
+        @Override
+        public Set<Object> columns() {
+            final Set<Object> a = left.columns();
+            final Set<Object> b = right.columns();
+            if (a == null || b == null) {
+                return null;
+            }
+            final Set<Object> names = new LinkedHashSet<>(a);
+            names.addAll(b);
+            return names;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + (and ? " AND " : " OR ") + right + ")";
+        }
+    }
+
+    private static final class Not
+    extends Filter {
+        private final Filter filter;
+
+        private Not(final Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        long[] evaluate(final Index columns, final BlockManager<?> data) {
+            final long[] words = filter.evaluate(columns, data);
+            for (int w = 0; w < words.length; w++) {
+                words[w] = ~words[w];
+            }
+            // a condition on a missing value is neither true nor false
+            final Set<Object> names = filter.columns();
+            if (names != null) {
+                for (final Object name : names) {
+                    final long[] missing = new Missing(name).evaluate(columns, data);
+                    for (int w = 0; w < words.length; w++) {
+                        words[w] &= ~missing[w];
+                    }
+                }
+            }
+            final int len = data.length();
+            if ((len & 63) != 0) {
+                words[words.length - 1] &= (1L << len) - 1;
+            }
+            return words;
+        }
+
+        @Override
+        public Set<Object> columns() {
+            return filter.columns();
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + filter;
+        }
+    }
+
+    /**
+     * Return the positions of the rows satisfying the filter.
+     */
+    static int[] select(final Filter filter, final Index columns, final BlockManager<?> data) {
+        final long[] words = filter.evaluate(columns, data);
+        int count = 0;
+        for (final long word : words) {
+            count += Long.bitCount(word);
+        }
+        final int[] rows = new int[count];
+        for (int w = 0, i = 0; w < words.length; w++) {
+            for (long word = words[w]; word != 0L; word &= word - 1) {
+                rows[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return rows;
+    }
+
+    private static int words(final int length) {
+        return (length + Long.SIZE - 1) >>> 6;
+    }
+
+    // ranges must start on word boundaries so
+    // each range sets bits in different words
+    private static int[] bounds(final int length) {
+        final int[] bounds = Parallel.partition(length);
+        for (int p = 1; p < bounds.length - 1; p++) {
+            bounds[p] = Math.min(length, (bounds[p] + Long.SIZE - 1) & -Long.SIZE);
+        }
+        return bounds;
+    }
+}
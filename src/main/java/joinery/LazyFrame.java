@@ -0,0 +1,638 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import joinery.DataFrame.Function;
+import joinery.DataFrame.NumberDefault;
+import joinery.DataFrame.Predicate;
+import joinery.Filters.Filter;
+import joinery.impl.Serialization;
+
+/**
+ * A query over a data frame or a csv file that is recorded as a plan
+ * and only executed by {@link #collect()}.
+ *
+ * <p>Before executing, the plan is optimized: column filters are moved
+ * before projections and sorts and into the csv reader, columns that are
+ * never used are not read, and adjacent {@link #apply(Function)} steps are
+ * combined so each value is transformed in a single pass.</p>
+ *
+ * <pre> {@code
+ * LazyFrame.readCsv("sales.csv")
+ *     .retain("region", "price")
+ *     .select(Filters.col("price").gt(100))
+ *     .groupBy("region")
+ *     .sum()
+ *     .collect();
+ * }</pre>
+ *
+ * Each method returns a new lazy frame, the plan of this one is unchanged.
+ */
+public final class LazyFrame<V> {
+    private final Node plan;
+
+    private LazyFrame(final Node plan) {
+        this.plan = plan;
+    }
+
+    public static <V> LazyFrame<V> of(final DataFrame<V> df) {
+        return new LazyFrame<>(new Source(df, null));
+    }
+
+    public static LazyFrame<Object> readCsv(final String file) {
+        return readCsv(file, ",", NumberDefault.LONG_DEFAULT, null, true);
+    }
+
+    public static LazyFrame<Object> readCsv(final String file, final String separator, final NumberDefault numDefault, final String naString, final boolean hasHeader) {
+        return new LazyFrame<>(new Scan(file, separator, numDefault, naString, hasHeader, null, null));
+    }
+
+    public LazyFrame<V> retain(final Object ... cols) {
+        return new LazyFrame<>(new Project(plan, Arrays.asList(cols)));
+    }
+
+    public LazyFrame<V> drop(final Object ... cols) {
+        return new LazyFrame<>(new Drop(plan, Arrays.asList(cols)));
+    }
+
+    public LazyFrame<V> select(final Filter filter) {
+        return new LazyFrame<>(new Select(plan, filter));
+    }
+
+    @SuppressWarnings("unchecked")
+    public LazyFrame<V> select(final Predicate<V> predicate) {
+        return new LazyFrame<>(new Where(plan, (Predicate<Object>)predicate));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <U> LazyFrame<U> apply(final Function<V, U> function) {
+        return new LazyFrame<>(new Apply(plan, Collections.singletonList((Function<Object, Object>)function)));
+    }
+
+    public LazyFrame<V> sortBy(final Object ... cols) {
+        return new LazyFrame<>(new Sort(plan, Arrays.asList(cols)));
+    }
+
+    public LazyFrame<V> head(final int limit) {
+        return new LazyFrame<>(new Head(plan, limit));
+    }
+
+    public LazyFrame<V> groupBy(final Object ... cols) {
+        return new LazyFrame<>(new Group(plan, Arrays.asList(cols)));
+    }
+
+    public LazyFrame<V> count() {
+        return new LazyFrame<>(new Aggregate(plan, "count"));
+    }
+
+    public LazyFrame<V> sum() {
+        return new LazyFrame<>(new Aggregate(plan, "sum"));
+    }
+
+    public LazyFrame<V> mean() {
+        return new LazyFrame<>(new Aggregate(plan, "mean"));
+    }
+
+    public LazyFrame<V> min() {
+        return new LazyFrame<>(new Aggregate(plan, "min"));
+    }
+
+    public LazyFrame<V> max() {
+        return new LazyFrame<>(new Aggregate(plan, "max"));
+    }
+
+    /**
+     * Optimize and execute the plan.
+     *
+     * @return the resulting data frame
+     * @throws UncheckedIOException if the csv source can not be read
+     */
+    @SuppressWarnings("unchecked")
+    public DataFrame<V> collect() {
+        return (DataFrame<V>)optimize(plan).execute();
+    }
+
+    /**
+     * Return the optimized plan, one step per line with the
+     * inputs of each step indented below it.
+     */
+    public String explain() {
+        final StringBuilder sb = new StringBuilder();
+        int depth = 0;
+        for (Node node = optimize(plan); node != null; node = node.input, depth++) {
+            if (depth > 0) {
+                sb.append("\n");
+            }
+            for (int i = 0; i < depth; i++) {
+                sb.append("  ");
+            }
+            sb.append(node);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    private static Node optimize(final Node plan) {
+        return prune(push(plan), null);
+    }
+
+    /**
+     * Move filters towards the source and combine adjacent functions.
+     */
+    private static Node push(final Node node) {
+        if (node.input == null) {
+            return node;
+        }
+        final Node input = push(node.input);
+        if (node instanceof Select) {
+            return push(Select.class.cast(node).filter, input);
+        }
+        if (node instanceof Apply && input instanceof Apply) {
+            final List<Function<Object, Object>> functions =
+                    new ArrayList<>(Apply.class.cast(input).functions);
+            functions.addAll(Apply.class.cast(node).functions);
+            return new Apply(input.input, functions);
+        }
+        return node.with(input);
+    }
+
+    private static Node push(final Filter filter, final Node input) {
+        // filters commute with projections keeping their columns and
+        // with sorts, but not with functions that change values or steps
+        // that depend on order
+        if (input instanceof Select) {
+            return push(Select.class.cast(input).filter.and(filter), input.input);
+        }
+        final Set<Object> cols = filter.columns();
+        if (input instanceof Project && cols != null && Project.class.cast(input).cols.containsAll(cols) ||
+                input instanceof Drop && cols != null && Collections.disjoint(Drop.class.cast(input).cols, cols) ||
+                input instanceof Sort) {
+            return input.with(push(filter, input.input));
+        }
+        if (input instanceof Scan) {
+            final Scan scan = Scan.class.cast(input);
+            return scan.with(scan.cols, scan.filter != null ? scan.filter.and(filter) : filter);
+        }
+        return new Select(input, filter);
+    }
+
+    /**
+     * Remove the columns not needed by later steps.
+     *
+     * @param required the columns needed, or {@code null} for all columns
+     */
+    private static Node prune(final Node node, final Set<Object> required) {
+        if (node instanceof Project) {
+            final List<Object> cols = Project.class.cast(node).cols;
+            final List<Object> needed = new ArrayList<>(cols);
+            if (required != null) {
+                needed.retainAll(required);
+            }
+            final Node input = prune(node.input, new LinkedHashSet<>(needed));
+            // a source reading exactly these columns needs no projection
+            if (needed.equals(input.columns())) {
+                return input;
+            }
+            return new Project(input, needed);
+        }
+        if (node instanceof Drop) {
+            if (required != null) {
+                return prune(new Project(node.input, new ArrayList<>(required)), required);
+            }
+            return node.with(prune(node.input, null));
+        }
+        if (node instanceof Select) {
+            if (node.input instanceof Source) {
+                // retaining columns copies them, so select the rows of
+                // the frame first and only copy the matching rows
+                return required == null ? node : new Project(node, new ArrayList<>(required));
+            }
+            return node.with(prune(node.input, union(required, Select.class.cast(node).filter.columns())));
+        }
+        if (node instanceof Sort) {
+            final Set<Object> cols = new LinkedHashSet<>();
+            for (final Object col : Sort.class.cast(node).cols) {
+                final String str = col instanceof String ? String.class.cast(col) : "";
+                cols.add(str.startsWith("-") ? str.substring(1) : col);
+            }
+            return node.with(prune(node.input, union(required, cols)));
+        }
+        if (node instanceof Group) {
+            return node.with(prune(node.input, union(required, new LinkedHashSet<>(Group.class.cast(node).cols))));
+        }
+        if (node instanceof Apply || node instanceof Head) {
+            return node.with(prune(node.input, required));
+        }
+        if (node instanceof Scan) {
+            final Scan scan = Scan.class.cast(node);
+            if (required == null) {
+                return scan;
+            }
+            // the filter is applied by the reader so its columns are read too,
+            // the reader returns columns in the order of the file like retain
+            final Set<Object> cols = union(required, scan.filter != null ? scan.filter.columns() : null);
+            return cols == null ? scan : scan.with(new ArrayList<>(cols), scan.filter);
+        }
+        if (node instanceof Source) {
+            return required == null ? node : new Source(Source.class.cast(node).df, new ArrayList<>(required));
+        }
+        // predicates and aggregates use every column
+        return node.input == null ? node : node.with(prune(node.input, null));
+    }
+
+    private static Set<Object> union(final Set<Object> a, final Set<Object> b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        final Set<Object> names = new LinkedHashSet<>(a);
+        names.addAll(b);
+        return names;
+    }
+
+    private abstract static class Node {
+        final Node input;
+
+        Node(final Node input) {
+            this.input = input;
+        }
+
+        abstract DataFrame<Object> execute();
+
+        /**
+         * Return a copy of this step reading from a different input.
+         */
+        abstract Node with(Node input);
+
+        /**
+         * Return the columns produced, or {@code null} if not known.
+         */
+        List<Object> columns() {
+            return null;
+        }
+    }
+
+    private static final class Source
+    extends Node {
+        private final DataFrame<Object> df;
+        private final List<Object> cols;
+
+        @SuppressWarnings("unchecked")
+        private Source(final DataFrame<?> df, final List<Object> cols) {
+            super(null);
+            this.df = (DataFrame<Object>)df;
+            this.cols = cols;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return cols != null ? df.retain(cols.toArray()) : df;
+        }
+
+        @Override
+        Node with(final Node input) {
+            return this;
+        }
+
+        @Override
+        List<Object> columns() {
+            return cols;
+        }
+
+        @Override
+        public String toString() {
+            return "Frame " + df.length() + " rows" + (cols != null ? " " + cols : "");
+        }
+    }
+
+    private static final class Scan
+    extends Node {
+        private final String file;
+        private final String separator;
+        private final NumberDefault numDefault;
+        private final String naString;
+        private final boolean hasHeader;
+        private final List<Object> cols;
+        private final Filter filter;
+
+        private Scan(final String file, final String separator, final NumberDefault numDefault,
+                final String naString, final boolean hasHeader, final List<Object> cols, final Filter filter) {
+            super(null);
+            this.file = file;
+            this.separator = separator;
+            this.numDefault = numDefault;
+            this.naString = naString;
+            this.hasHeader = hasHeader;
+            this.cols = cols;
+            this.filter = filter;
+        }
+
+        private Scan with(final List<Object> cols, final Filter filter) {
+            return new Scan(file, separator, numDefault, naString, hasHeader, cols, filter);
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            try {
+                return Serialization.readCsv(file, separator, numDefault, naString, hasHeader, cols, filter);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        Node with(final Node input) {
+            return this;
+        }
+
+        @Override
+        List<Object> columns() {
+            return cols;
+        }
+
+        @Override
+        public String toString() {
+            return "Csv " + file + (cols != null ? " " + cols : "") +
+                    (filter != null ? " where " + filter : "");
+        }
+    }
+
+    private static final class Project
+    extends Node {
+        private final List<Object> cols;
+
+        private Project(final Node input, final List<Object> cols) {
+            super(input);
+            this.cols = cols;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().retain(cols.toArray());
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Project(input, cols);
+        }
+
+        @Override
+        List<Object> columns() {
+            return cols;
+        }
+
+        @Override
+        public String toString() {
+            return "Retain " + cols;
+        }
+    }
+
+    private static final class Drop
+    extends Node {
+        private final List<Object> cols;
+
+        private Drop(final Node input, final List<Object> cols) {
+            super(input);
+            this.cols = cols;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().drop(cols.toArray());
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Drop(input, cols);
+        }
+
+        @Override
+        public String toString() {
+            return "Drop " + cols;
+        }
+    }
+
+    private static final class Select
+    extends Node {
+        private final Filter filter;
+
+        private Select(final Node input, final Filter filter) {
+            super(input);
+            this.filter = filter;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().select(filter);
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Select(input, filter);
+        }
+
+        @Override
+        public String toString() {
+            return "Select " + filter;
+        }
+    }
+
+    private static final class Where
+    extends Node {
+        private final Predicate<Object> predicate;
+
+        private Where(final Node input, final Predicate<Object> predicate) {
+            super(input);
+            this.predicate = predicate;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().select(predicate);
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Where(input, predicate);
+        }
+
+        @Override
+        public String toString() {
+            return "Select " + predicate;
+        }
+    }
+
+    private static final class Apply
+    extends Node {
+        private final List<Function<Object, Object>> functions;
+
+        private Apply(final Node input, final List<Function<Object, Object>> functions) {
+            super(input);
+            this.functions = functions;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().apply(new Function<Object, Object>() {
+                @Override
+                public Object apply(final Object value) {
+                    Object result = value;
+                    for (final Function<Object, Object> function : functions) {
+                        result = function.apply(result);
+                    }
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Apply(input, functions);
+        }
+
+        @Override
+        public String toString() {
+            return "Apply " + functions.size() + (functions.size() == 1 ? " function" : " functions");
+        }
+    }
+
+    private static final class Sort
+    extends Node {
+        private final List<Object> cols;
+
+        private Sort(final Node input, final List<Object> cols) {
+            super(input);
+            this.cols = cols;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().sortBy(cols.toArray());
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Sort(input, cols);
+        }
+
+        @Override
+        public String toString() {
+            return "Sort " + cols;
+        }
+    }
+
+    private static final class Head
+    extends Node {
+        private final int limit;
+
+        private Head(final Node input, final int limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().head(limit);
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Head(input, limit);
+        }
+
+        @Override
+        public String toString() {
+            return "Head " + limit;
+        }
+    }
+
+    private static final class Group
+    extends Node {
+        private final List<Object> cols;
+
+        private Group(final Node input, final List<Object> cols) {
+            super(input);
+            this.cols = cols;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            return input.execute().groupBy(cols.toArray());
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Group(input, cols);
+        }
+
+        @Override
+        public String toString() {
+            return "Group " + cols;
+        }
+    }
+
+    private static final class Aggregate
+    extends Node {
+        private final String function;
+
+        private Aggregate(final Node input, final String function) {
+            super(input);
+            this.function = function;
+        }
+
+        @Override
+        DataFrame<Object> execute() {
+            final DataFrame<Object> df = input.execute();
+            switch (function) {
+                case "count":
+                    return df.count();
+                case "sum":
+                    return df.sum();
+                case "mean":
+                    return df.mean();
+                case "min":
+                    return df.min();
+                default:
+                    return df.max();
+            }
+        }
+
+        @Override
+        Node with(final Node input) {
+            return new Aggregate(input, function);
+        }
+
+        @Override
+        public String toString() {
+            return "Aggregate " + function;
+        }
+    }
+}
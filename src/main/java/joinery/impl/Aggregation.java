@@ -33,13 +33,127 @@ import org.apache.commons.math3.stat.descriptive.UnivariateStatistic;
 
 import joinery.DataFrame;
 import joinery.DataFrame.Aggregate;
+import joinery.DataFrame.MergeableAggregate;
 
 public class Aggregation {
-    public static class Count<V>
-    implements Aggregate<V, Number> {
+    /**
+     * Accumulator state holding a count and a single value.
+     */
+    public static final class Total {
+        private long n = 0;
+        private double value;
+
+        private Total(final double value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Accumulator state holding the count, mean and central
+     * moments of the values seen, updated incrementally exactly
+     * as the commons-math moment statistics do.
+     */
+    public static final class Moments {
+        private long n = 0;
+        private double m1 = Double.NaN;
+        private double m2 = Double.NaN;
+        private double m3 = Double.NaN;
+        private double m4 = Double.NaN;
+
+        private void increment(final double d) {
+            if (n < 1) {
+                m1 = m2 = m3 = m4 = 0.0;
+            }
+
+            final double prevM2 = m2;
+            final double prevM3 = m3;
+            n++;
+            final double n0 = n;
+            final double dev = d - m1;
+            final double nDev = dev / n0;
+            final double nDevSq = nDev * nDev;
+            m1 += nDev;
+            m2 += (n0 - 1) * dev * nDev;
+            m3 = m3 - 3.0 * nDev * prevM2 + (n0 - 1) * (n0 - 2) * nDevSq * dev;
+            m4 = m4 - 4.0 * nDev * prevM3 + 6.0 * nDevSq * prevM2 +
+                 (n0 * n0 - 3 * (n0 - 1)) * (nDevSq * nDevSq * (n0 - 1) * n0);
+        }
+
+        private void merge(final Moments other) {
+            if (other.n == 0) {
+                return;
+            }
+            if (n == 0) {
+                n = other.n;
+                m1 = other.m1;
+                m2 = other.m2;
+                m3 = other.m3;
+                m4 = other.m4;
+                return;
+            }
+
+            final double na = n;
+            final double nb = other.n;
+            final double n0 = na + nb;
+            final double delta = other.m1 - m1;
+            final double delta2 = delta * delta;
+            final double m2a = m2;
+            final double m3a = m3;
+            m1 += delta * nb / n0;
+            m2 = m2a + other.m2 + delta2 * na * nb / n0;
+            m3 = m3a + other.m3 + delta2 * delta * na * nb * (na - nb) / (n0 * n0) +
+                 3.0 * delta * (na * other.m2 - nb * m2a) / n0;
+            m4 = m4 + other.m4 + delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) / (n0 * n0 * n0) +
+                 6.0 * delta2 * (na * na * other.m2 + nb * nb * m2a) / (n0 * n0) +
+                 4.0 * delta * (na * other.m3 - nb * m3a) / n0;
+            n += other.n;
+        }
+
+        private double variance() {
+            return n == 0 ? Double.NaN : n == 1 ? 0.0 : m2 / (n - 1);
+        }
+    }
+
+    private static double value(final Object value) {
+        if (value instanceof Boolean) {
+            return Boolean.class.cast(value) ? 1 : 0;
+        }
+        return Number.class.cast(value).doubleValue();
+    }
+
+    private static abstract class AbstractMergeableAggregate<V, A>
+    implements MergeableAggregate<V, Number, A> {
         @Override
         public Number apply(final List<V> values) {
-            return new Integer(values.size());
+            final A state = create();
+            for (final V value : values) {
+                add(state, value);
+            }
+            return finish(state);
+        }
+    }
+
+    public static class Count<V>
+    extends AbstractMergeableAggregate<V, Total> {
+        @Override
+        public Total create() {
+            return new Total(0.0);
+        }
+
+        @Override
+        public void add(final Total state, final V value) {
+            state.n++;
+        }
+
+        @Override
+        public Total merge(final Total state, final Total other) {
+            state.n += other.n;
+            return state;
+        }
+
+        @Override
+        public Number finish(final Total state) {
+            return Integer.valueOf((int)state.n);
         }
     }
 
@@ -95,12 +209,9 @@ public class Aggregation {
         @Override
         public Number apply(final List<V> values) {
             stat.clear();
-            for (Object value : values) {
+            for (final Object value : values) {
                 if (value != null) {
-                    if (value instanceof Boolean) {
-                        value = Boolean.class.cast(value) ? 1 : 0;
-                    }
-                    stat.increment(Number.class.cast(value).doubleValue());
+                    stat.increment(value(value));
                 }
             }
             return stat.getResult();
@@ -108,9 +219,30 @@ public class Aggregation {
     }
 
     public static class Sum<V>
-    extends AbstractStorelessStatistic<V> {
-        public Sum() {
-            super(new org.apache.commons.math3.stat.descriptive.summary.Sum());
+    extends AbstractMergeableAggregate<V, Total> {
+        @Override
+        public Total create() {
+            return new Total(0.0);
+        }
+
+        @Override
+        public void add(final Total state, final V value) {
+            if (value != null) {
+                state.value += value(value);
+                state.n++;
+            }
+        }
+
+        @Override
+        public Total merge(final Total state, final Total other) {
+            state.value += other.value;
+            state.n += other.n;
+            return state;
+        }
+
+        @Override
+        public Number finish(final Total state) {
+            return state.value;
         }
     }
 
@@ -121,52 +253,132 @@ public class Aggregation {
         }
     }
 
+    private static abstract class AbstractMoment<V>
+    extends AbstractMergeableAggregate<V, Moments> {
+        @Override
+        public Moments create() {
+            return new Moments();
+        }
+
+        @Override
+        public void add(final Moments state, final V value) {
+            if (value != null) {
+                state.increment(value(value));
+            }
+        }
+
+        @Override
+        public Moments merge(final Moments state, final Moments other) {
+            state.merge(other);
+            return state;
+        }
+    }
+
     public static class Mean<V>
-    extends AbstractStorelessStatistic<V> {
-        public Mean() {
-            super(new org.apache.commons.math3.stat.descriptive.moment.Mean());
+    extends AbstractMoment<V> {
+        @Override
+        public Number finish(final Moments state) {
+            return state.n == 0 ? Double.NaN : state.m1;
         }
     }
 
     public static class StdDev<V>
-    extends AbstractStorelessStatistic<V> {
-        public StdDev() {
-            super(new org.apache.commons.math3.stat.descriptive.moment.StandardDeviation());
+    extends AbstractMoment<V> {
+        @Override
+        public Number finish(final Moments state) {
+            return Math.sqrt(state.variance());
         }
     }
 
     public static class Variance<V>
-    extends AbstractStorelessStatistic<V> {
-        public Variance() {
-            super(new org.apache.commons.math3.stat.descriptive.moment.Variance());
+    extends AbstractMoment<V> {
+        @Override
+        public Number finish(final Moments state) {
+            return state.variance();
         }
     }
 
     public static class Skew<V>
-    extends AbstractStorelessStatistic<V> {
-        public Skew() {
-            super(new org.apache.commons.math3.stat.descriptive.moment.Skewness());
+    extends AbstractMoment<V> {
+        @Override
+        public Number finish(final Moments state) {
+            if (state.n < 3) {
+                return Double.NaN;
+            }
+            final double variance = state.m2 / (state.n - 1);
+            if (variance < 10E-20) {
+                return 0.0;
+            }
+            final double n0 = state.n;
+            return (n0 * state.m3) / ((n0 - 1) * (n0 - 2) * Math.sqrt(variance) * variance);
         }
     }
 
     public static class Kurtosis<V>
-    extends AbstractStorelessStatistic<V> {
-        public Kurtosis() {
-            super(new org.apache.commons.math3.stat.descriptive.moment.Kurtosis());
+    extends AbstractMoment<V> {
+        @Override
+        public Number finish(final Moments state) {
+            if (state.n <= 3) {
+                return Double.NaN;
+            }
+            final double variance = state.m2 / (state.n - 1);
+            if (variance < 10E-20) {
+                return 0.0;
+            }
+            final double n0 = state.n;
+            return (n0 * (n0 + 1) * state.m4 - 3 * state.m2 * state.m2 * (n0 - 1)) /
+                   ((n0 - 1) * (n0 - 2) * (n0 - 3) * variance * variance);
+        }
+    }
+
+    private static abstract class AbstractExtremum<V>
+    extends AbstractMergeableAggregate<V, Total> {
+        protected abstract boolean replace(double value, double current);
+
+        @Override
+        public Total create() {
+            return new Total(Double.NaN);
+        }
+
+        @Override
+        public void add(final Total state, final V value) {
+            if (value != null) {
+                final double d = value(value);
+                if (replace(d, state.value) || Double.isNaN(state.value)) {
+                    state.value = d;
+                }
+                state.n++;
+            }
+        }
+
+        @Override
+        public Total merge(final Total state, final Total other) {
+            if (other.n > 0 && (replace(other.value, state.value) || Double.isNaN(state.value))) {
+                state.value = other.value;
+            }
+            state.n += other.n;
+            return state;
+        }
+
+        @Override
+        public Number finish(final Total state) {
+            return state.value;
         }
     }
 
     public static class Min<V>
-    extends AbstractStorelessStatistic<V> {
-        public Min() {
-            super(new org.apache.commons.math3.stat.descriptive.rank.Min());
+    extends AbstractExtremum<V> {
+        @Override
+        protected boolean replace(final double value, final double current) {
+            return value < current;
         }
     }
 
     public static class Max<V>
-    extends AbstractStorelessStatistic<V> {
-        public Max() {
-            super(new org.apache.commons.math3.stat.descriptive.rank.Max());
+    extends AbstractExtremum<V> {
+        @Override
+        protected boolean replace(final double value, final double current) {
+            return value > current;
         }
     }
 
@@ -213,12 +425,9 @@ public class Aggregation {
         @Override
         public StatisticalSummary apply(final List<V> values) {
             stat.clear();
-            for (Object value : values) {
+            for (final Object value : values) {
                 if (value != null) {
-                    if (value instanceof Boolean) {
-                        value = Boolean.class.cast(value) ? 1 : 0;
-                    }
-                    stat.addValue(Number.class.cast(value).doubleValue());
+                    stat.addValue(value(value));
                 }
             }
             return stat.getSummary();
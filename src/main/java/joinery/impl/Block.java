@@ -0,0 +1,979 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Column storage for a block manager.
+ *
+ * Columns holding only doubles, longs, integers or booleans are
+ * stored in primitive arrays with a separate null mask, everything
+ * else falls back to an object array.  Blocks are lists so the rest
+ * of the code base can treat them like any other column, but callers
+ * must check {@link #accepts(Object)} before storing a value and
+ * {@link #promote(Object)} the block if necessary.
+ *
+ * Blocks may be shared between data frames, in which case they
+ * are never modified again and callers must modify the
+ * {@link #writable()} block instead.
+ */
+public abstract class Block<V>
+extends AbstractList<V>
+implements RandomAccess {
+    protected int size = 0;
+    // bounds of each chunk of rows, kept while values are only appended
+    protected ZoneMap zones = null;
+    private boolean shared = false;
+
+    public static <V> Block<V> of(final Collection<? extends V> values) {
+        if (values instanceof Block) {
+            @SuppressWarnings("unchecked")
+            final Block<V> block = Block.class.cast(values);
+            return block.copy();
+        }
+
+        // copy first, views may be backed by functions
+        // which must only be evaluated once per value
+        final Object[] array = values.toArray();
+        final Block<V> block = create(type(Arrays.asList(array)), array.length);
+        for (final Object value : array) {
+            @SuppressWarnings("unchecked")
+            final V v = (V)value;
+            block.add(v);
+        }
+        return block;
+    }
+
+    /**
+     * Return a block holding the values of the specified blocks in
+     * order without copying them, a {@code null} block stands for
+     * the corresponding number of {@code null} values.
+     */
+    public static <V> Block<V> concat(final List<? extends Block<? extends V>> blocks, final int[] lengths) {
+        return new ChunkedBlock<>(blocks, lengths);
+    }
+
+    public static <V> Block<V> create(final Class<?> type, final int capacity) {
+        final Block<V> block;
+        if (type == Double.class) {
+            block = new DoubleBlock<>(capacity);
+        } else if (type == Long.class) {
+            block = new LongBlock<>(capacity);
+        } else if (type == Integer.class) {
+            block = new IntBlock<>(capacity);
+        } else if (type == Boolean.class) {
+            return new BooleanBlock<>(capacity);
+        } else {
+            block = new ObjectBlock<>(capacity);
+        }
+        block.zones = new ZoneMap();
+        return block;
+    }
+
+    /**
+     * Return the class shared by all non-null values, {@code Object.class}
+     * if there is more than one class present or {@code null} if
+     * there are no non-null values.
+     */
+    public static Class<?> type(final Iterable<?> values) {
+        Class<?> type = null;
+        for (final Object value : values) {
+            if (value != null) {
+                if (type == null) {
+                    type = value.getClass();
+                } else if (type != value.getClass()) {
+                    return Object.class;
+                }
+            }
+        }
+        return type;
+    }
+
+    private static boolean primitive(final Class<?> type) {
+        return type == Double.class || type == Long.class ||
+               type == Integer.class || type == Boolean.class;
+    }
+
+    public abstract Class<?> type();
+
+    public abstract boolean accepts(Object value);
+
+    public abstract boolean isNull(int index);
+
+    /**
+     * Return the non-null primitive value at the specified position
+     * encoded as a long such that equal values have equal encodings.
+     */
+    public long bits(final int index) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no primitive values");
+    }
+
+    public abstract void put(int index, V value);
+
+    public abstract Block<V> copy();
+
+    protected abstract int capacity();
+
+    protected abstract void grow(int capacity);
+
+    /**
+     * Return a block containing the same values as this one
+     * that is able to store the specified value.
+     */
+    public Block<V> promote(final Object value) {
+        final Block<V> promoted = new ObjectBlock<>(Math.max(size, capacity()));
+        // bounds are recomputed from the values while they are copied
+        promoted.zones = new ZoneMap();
+        for (int i = 0; i < size; i++) {
+            promoted.add(get(i));
+        }
+        return promoted;
+    }
+
+    /**
+     * Return a new block holding the values at the specified
+     * positions in order, negative positions produce nulls.
+     */
+    public Block<V> take(final int[] rows) {
+        final Block<V> taken = create(type(), rows.length);
+        for (final int r : rows) {
+            taken.add(r < 0 ? null : get(r));
+        }
+        return taken;
+    }
+
+    /**
+     * Set the bit at {@code offset + row} in the words for each row in
+     * the range whose value satisfies the comparison with the argument,
+     * leaving the other bits unchanged.
+     */
+    public final void select(final Operator op, final Object value,
+            final int start, final int end, final long[] words, final int offset) {
+        if (zones == null) {
+            scan(op, value, start, end, words, offset);
+            return;
+        }
+        for (int r = start; r < end; ) {
+            final int next = Math.min(end, ((r >>> ZoneMap.CHUNK_SHIFT) + 1) << ZoneMap.CHUNK_SHIFT);
+            if (!zones.skip(r, op, value)) {
+                scan(op, value, r, next, words, offset);
+            }
+            r = next;
+        }
+    }
+
+    /**
+     * Compare the values in the range like {@link #select}
+     * without skipping any rows.
+     */
+    protected void scan(final Operator op, final Object value,
+            final int start, final int end, final long[] words, final int offset) {
+        final int mask = op.mask();
+        for (int r = start; r < end; r++) {
+            if (!isNull(r)) {
+                final int j = offset + r;
+                words[j >>> 6] |= Operator.accepts(mask, Operator.compare(get(r), value)) << j;
+            }
+        }
+    }
+
+    /**
+     * Return the most compact block able to store the values in
+     * this block, which may be this block.
+     */
+    public Block<V> compact() {
+        return this;
+    }
+
+    /**
+     * Return a block with the same values that may be modified
+     * without affecting any other data frame, which may be this block.
+     */
+    public Block<V> writable() {
+        return shared ? copy() : this;
+    }
+
+    public void ensureCapacity(final int capacity) {
+        final int current = capacity();
+        if (current < capacity) {
+            grow(Math.max(capacity, current + (current >> 1) + 1));
+        }
+    }
+
+    protected final void check(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public V set(final int index, final V value) {
+        final V old = get(index);
+        // bounds are only ever widened, not recomputed
+        zones = null;
+        put(index, value);
+        return old;
+    }
+
+    @Override
+    public void add(final int index, final V value) {
+        if (index != size) {
+            throw new UnsupportedOperationException("blocks can only be appended to");
+        }
+        ensureCapacity(size + 1);
+        size++;
+        put(index, value);
+        if (zones != null) {
+            zones = zones.add(value);
+        }
+    }
+
+    /**
+     * Return the bounds of each chunk of rows, or {@code null} if
+     * they are not known because values were set in place or the
+     * block does not hold only numbers or dates.
+     */
+    public ZoneMap zones() {
+        return zones;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static abstract class NullableBlock<V>
+    extends Block<V> {
+        private long[] nulls;
+
+        @Override
+        public boolean isNull(final int index) {
+            check(index);
+            return nulls != null && (nulls[index >>> 6] & (1L << index)) != 0L;
+        }
+
+        protected final void mark(final int index, final boolean isnull) {
+            if (isnull) {
+                if (nulls == null) {
+                    nulls = new long[(capacity() + Long.SIZE - 1) >>> 6];
+                }
+                nulls[index >>> 6] |= (1L << index);
+            } else if (nulls != null) {
+                nulls[index >>> 6] &= ~(1L << index);
+            }
+        }
+
+        protected final void takeTo(final NullableBlock<V> block, final int[] rows) {
+            block.size = rows.length;
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] < 0 || isNull(rows[i])) {
+                    block.mark(i, true);
+                }
+            }
+        }
+
+        protected final void unselectNulls(final int start, final int end,
+                final long[] words, final int offset) {
+            if (nulls != null) {
+                for (int r = start; r < end; r++) {
+                    if ((nulls[r >>> 6] & (1L << r)) != 0L) {
+                        final int j = offset + r;
+                        words[j >>> 6] &= ~(1L << j);
+                    }
+                }
+            }
+        }
+
+        protected final void copyTo(final NullableBlock<V> block) {
+            block.size = size;
+            block.nulls = nulls != null ? nulls.clone() : null;
+            block.zones = zones != null ? zones.copy() : null;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            if (nulls != null) {
+                nulls = Arrays.copyOf(nulls, (capacity + Long.SIZE - 1) >>> 6);
+            }
+        }
+    }
+
+    public static final class DoubleBlock<V>
+    extends NullableBlock<V> {
+        private double[] values;
+
+        private DoubleBlock(final int capacity) {
+            values = new double[capacity];
+        }
+
+        public double getDouble(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            return isNull(index) ? null : (V)Double.valueOf(values[index]);
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            check(index);
+            if (value != null) {
+                values[index] = Double.class.cast(value);
+            }
+            mark(index, value == null);
+        }
+
+        @Override
+        public long bits(final int index) {
+            check(index);
+            return Double.doubleToLongBits(values[index]);
+        }
+
+        @Override
+        public Class<?> type() {
+            return Double.class;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return value == null || value instanceof Double;
+        }
+
+        @Override
+        protected void scan(final Operator op, final Object value,
+                final int start, final int end, final long[] words, final int offset) {
+            if (!(value instanceof Number)) {
+                super.scan(op, value, start, end, words, offset);
+                return;
+            }
+            final int mask = op.mask();
+            final double v = Number.class.cast(value).doubleValue();
+            final int nan = v != v ? 2 : 0;
+            long word = 0L;
+            for (int r = start; r < end; r++) {
+                final int j = offset + r;
+                final double x = values[r];
+                // no branches, random values would be mispredicted
+                word |= Operator.accepts(mask, (x < v ? -1 : 0) + (x > v ? 1 : 0) + (x != x ? 2 : nan)) << j;
+                if ((j & 63) == 63) {
+                    words[j >>> 6] |= word;
+                    word = 0L;
+                }
+            }
+            if (start < end) {
+                words[(offset + end - 1) >>> 6] |= word;
+            }
+            unselectNulls(start, end, words, offset);
+        }
+
+        @Override
+        public Block<V> take(final int[] rows) {
+            final DoubleBlock<V> taken = new DoubleBlock<>(rows.length);
+            takeTo(taken, rows);
+            ZoneMap zones = new ZoneMap();
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    taken.values[i] = values[rows[i]];
+                }
+                zones = taken.isNull(i) ? zones.addNull() : zones.add(taken.values[i]);
+            }
+            taken.zones = zones;
+            return taken;
+        }
+
+        @Override
+        public Block<V> copy() {
+            final DoubleBlock<V> copy = new DoubleBlock<>(0);
+            copyTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+
+        @Override
+        protected int capacity() {
+            return values.length;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            super.grow(capacity);
+        }
+    }
+
+    public static final class LongBlock<V>
+    extends NullableBlock<V> {
+        private long[] values;
+
+        private LongBlock(final int capacity) {
+            values = new long[capacity];
+        }
+
+        public long getLong(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            return isNull(index) ? null : (V)Long.valueOf(values[index]);
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            check(index);
+            if (value != null) {
+                values[index] = Long.class.cast(value);
+            }
+            mark(index, value == null);
+        }
+
+        @Override
+        public long bits(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        public Class<?> type() {
+            return Long.class;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return value == null || value instanceof Long;
+        }
+
+        @Override
+        protected void scan(final Operator op, final Object value,
+                final int start, final int end, final long[] words, final int offset) {
+            if (!(value instanceof Number)) {
+                super.scan(op, value, start, end, words, offset);
+                return;
+            }
+            final int mask = op.mask();
+            final boolean integral = Operator.integral(value);
+            final long v = Number.class.cast(value).longValue();
+            final double d = Number.class.cast(value).doubleValue();
+            final int nan = d != d ? 2 : 0;
+            long word = 0L;
+            for (int r = start; r < end; r++) {
+                final int j = offset + r;
+                final long x = values[r];
+                word |= Operator.accepts(mask, integral ?
+                            (x < v ? -1 : 0) + (x > v ? 1 : 0) :
+                            (x < d ? -1 : 0) + (x > d ? 1 : 0) + nan
+                        ) << j;
+                if ((j & 63) == 63) {
+                    words[j >>> 6] |= word;
+                    word = 0L;
+                }
+            }
+            if (start < end) {
+                words[(offset + end - 1) >>> 6] |= word;
+            }
+            unselectNulls(start, end, words, offset);
+        }
+
+        @Override
+        public Block<V> take(final int[] rows) {
+            final LongBlock<V> taken = new LongBlock<>(rows.length);
+            takeTo(taken, rows);
+            ZoneMap zones = new ZoneMap();
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    taken.values[i] = values[rows[i]];
+                }
+                zones = taken.isNull(i) ? zones.addNull() : zones.add(taken.values[i]);
+            }
+            taken.zones = zones;
+            return taken;
+        }
+
+        @Override
+        public Block<V> copy() {
+            final LongBlock<V> copy = new LongBlock<>(0);
+            copyTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+
+        @Override
+        protected int capacity() {
+            return values.length;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            super.grow(capacity);
+        }
+    }
+
+    public static final class IntBlock<V>
+    extends NullableBlock<V> {
+        private int[] values;
+
+        private IntBlock(final int capacity) {
+            values = new int[capacity];
+        }
+
+        public int getInt(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            return isNull(index) ? null : (V)Integer.valueOf(values[index]);
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            check(index);
+            if (value != null) {
+                values[index] = Integer.class.cast(value);
+            }
+            mark(index, value == null);
+        }
+
+        @Override
+        public long bits(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        public Class<?> type() {
+            return Integer.class;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return value == null || value instanceof Integer;
+        }
+
+        @Override
+        protected void scan(final Operator op, final Object value,
+                final int start, final int end, final long[] words, final int offset) {
+            if (!(value instanceof Number)) {
+                super.scan(op, value, start, end, words, offset);
+                return;
+            }
+            final int mask = op.mask();
+            final boolean integral = Operator.integral(value);
+            final long v = Number.class.cast(value).longValue();
+            final double d = Number.class.cast(value).doubleValue();
+            final int nan = d != d ? 2 : 0;
+            long word = 0L;
+            for (int r = start; r < end; r++) {
+                final int j = offset + r;
+                final long x = values[r];
+                word |= Operator.accepts(mask, integral ?
+                            (x < v ? -1 : 0) + (x > v ? 1 : 0) :
+                            (x < d ? -1 : 0) + (x > d ? 1 : 0) + nan
+                        ) << j;
+                if ((j & 63) == 63) {
+                    words[j >>> 6] |= word;
+                    word = 0L;
+                }
+            }
+            if (start < end) {
+                words[(offset + end - 1) >>> 6] |= word;
+            }
+            unselectNulls(start, end, words, offset);
+        }
+
+        @Override
+        public Block<V> take(final int[] rows) {
+            final IntBlock<V> taken = new IntBlock<>(rows.length);
+            takeTo(taken, rows);
+            ZoneMap zones = new ZoneMap();
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    taken.values[i] = values[rows[i]];
+                }
+                zones = taken.isNull(i) ? zones.addNull() : zones.add((long)taken.values[i]);
+            }
+            taken.zones = zones;
+            return taken;
+        }
+
+        @Override
+        public Block<V> copy() {
+            final IntBlock<V> copy = new IntBlock<>(0);
+            copyTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+
+        @Override
+        protected int capacity() {
+            return values.length;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            super.grow(capacity);
+        }
+    }
+
+    public static final class BooleanBlock<V>
+    extends NullableBlock<V> {
+        private boolean[] values;
+
+        private BooleanBlock(final int capacity) {
+            values = new boolean[capacity];
+        }
+
+        public boolean getBoolean(final int index) {
+            check(index);
+            return values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            return isNull(index) ? null : (V)Boolean.valueOf(values[index]);
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            check(index);
+            if (value != null) {
+                values[index] = Boolean.class.cast(value);
+            }
+            mark(index, value == null);
+        }
+
+        @Override
+        public long bits(final int index) {
+            check(index);
+            return values[index] ? 1L : 0L;
+        }
+
+        @Override
+        public Class<?> type() {
+            return Boolean.class;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return value == null || value instanceof Boolean;
+        }
+
+        @Override
+        public Block<V> take(final int[] rows) {
+            final BooleanBlock<V> taken = new BooleanBlock<>(rows.length);
+            takeTo(taken, rows);
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    taken.values[i] = values[rows[i]];
+                }
+            }
+            return taken;
+        }
+
+        @Override
+        public Block<V> copy() {
+            final BooleanBlock<V> copy = new BooleanBlock<>(0);
+            copyTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+
+        @Override
+        protected int capacity() {
+            return values.length;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            super.grow(capacity);
+        }
+    }
+
+    public static final class ObjectBlock<V>
+    extends Block<V> {
+        private Object[] values;
+        // number of non-null values, an empty block
+        // is promoted to a primitive one on first use
+        private int count = 0;
+
+        private ObjectBlock(final int capacity) {
+            values = new Object[capacity];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            check(index);
+            return (V)values[index];
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            check(index);
+            final Object old = values[index];
+            if (old == null && value != null) {
+                count++;
+            } else if (old != null && value == null) {
+                count--;
+            }
+            values[index] = value;
+        }
+
+        @Override
+        public boolean isNull(final int index) {
+            check(index);
+            return values[index] == null;
+        }
+
+        @Override
+        public Class<?> type() {
+            return Object.class;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return count > 0 || value == null || !primitive(value.getClass());
+        }
+
+        @Override
+        public Block<V> promote(final Object value) {
+            if (count == 0 && value != null) {
+                final Block<V> promoted = create(value.getClass(), Math.max(size, capacity()));
+                for (int i = 0; i < size; i++) {
+                    promoted.add(null);
+                }
+                return promoted;
+            }
+            return super.promote(value);
+        }
+
+        @Override
+        public Block<V> compact() {
+            final Class<?> type = type(this);
+            if (primitive(type)) {
+                final Block<V> compacted = create(type, size);
+                for (int i = 0; i < size; i++) {
+                    compacted.add(get(i));
+                }
+                return compacted;
+            }
+            return this;
+        }
+
+        @Override
+        public Block<V> take(final int[] rows) {
+            final ObjectBlock<V> taken = new ObjectBlock<>(rows.length);
+            taken.size = rows.length;
+            ZoneMap zones = new ZoneMap();
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0) {
+                    check(rows[i]);
+                    final Object value = values[rows[i]];
+                    if (value != null) {
+                        taken.values[i] = value;
+                        taken.count++;
+                    }
+                }
+                zones = zones != null ? zones.add(taken.values[i]) : null;
+            }
+            taken.zones = zones;
+            return taken;
+        }
+
+        @Override
+        public Block<V> copy() {
+            final ObjectBlock<V> copy = new ObjectBlock<>(0);
+            copy.values = Arrays.copyOf(values, size);
+            copy.size = size;
+            copy.count = count;
+            copy.zones = zones != null ? zones.copy() : null;
+            return copy;
+        }
+
+        @Override
+        protected int capacity() {
+            return values.length;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * A read only block made of consecutive chunks of other blocks,
+     * which are shared rather than copied.  Writing to a chunked block
+     * requires materializing the values into a single block first.
+     */
+    private static final class ChunkedBlock<V>
+    extends Block<V> {
+        private final Block<?>[] chunks;
+        // the position of the first value of each chunk
+        private final int[] offsets;
+        private final Class<?> type;
+
+        private ChunkedBlock(final List<? extends Block<?>> blocks, final int[] lengths) {
+            final List<Block<?>> chunks = new ArrayList<>(blocks.size());
+            final List<Integer> offsets = new ArrayList<>(blocks.size());
+            for (int b = 0; b < blocks.size(); b++) {
+                final Block<?> block = blocks.get(b);
+                if (block instanceof ChunkedBlock) {
+                    final ChunkedBlock<?> chunked = ChunkedBlock.class.cast(block);
+                    for (int c = 0; c < chunked.chunks.length; c++) {
+                        offsets.add(size + chunked.offsets[c]);
+                        chunks.add(chunked.chunks[c]);
+                    }
+                } else if (lengths[b] > 0) {
+                    if (block != null) {
+                        block.shared = true;
+                    }
+                    offsets.add(size);
+                    chunks.add(block);
+                }
+                size += lengths[b];
+            }
+
+            this.chunks = chunks.toArray(new Block<?>[chunks.size()]);
+            this.offsets = new int[offsets.size()];
+            Class<?> type = null;
+            for (int c = 0; c < this.chunks.length; c++) {
+                this.offsets[c] = offsets.get(c);
+                if (this.chunks[c] != null) {
+                    type = type == null || type == this.chunks[c].type() ?
+                            this.chunks[c].type() : Object.class;
+                }
+            }
+            this.type = type != null ? type : Object.class;
+        }
+
+        private ChunkedBlock(final ChunkedBlock<V> other) {
+            chunks = other.chunks;
+            offsets = other.offsets;
+            type = other.type;
+            size = other.size;
+        }
+
+        private int chunk(final int index) {
+            check(index);
+            final int c = Arrays.binarySearch(offsets, index);
+            return c >= 0 ? c : -c - 2;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(final int index) {
+            final int c = chunk(index);
+            return chunks[c] == null ? null : (V)chunks[c].get(index - offsets[c]);
+        }
+
+        @Override
+        public boolean isNull(final int index) {
+            final int c = chunk(index);
+            return chunks[c] == null || chunks[c].isNull(index - offsets[c]);
+        }
+
+        @Override
+        public long bits(final int index) {
+            final int c = chunk(index);
+            return chunks[c].bits(index - offsets[c]);
+        }
+
+        @Override
+        public Class<?> type() {
+            return type;
+        }
+
+        @Override
+        public boolean accepts(final Object value) {
+            return false;
+        }
+
+        @Override
+        public void put(final int index, final V value) {
+            throw new UnsupportedOperationException("chunked blocks are read only");
+        }
+
+        @Override
+        protected void scan(final Operator op, final Object value,
+                final int start, final int end, final long[] words, final int offset) {
+            for (int c = start < size ? chunk(start) : chunks.length; c < chunks.length && offsets[c] < end; c++) {
+                final int last = c + 1 < chunks.length ? offsets[c + 1] : size;
+                // missing chunks are all null and never match
+                if (chunks[c] != null) {
+                    chunks[c].select(op, value, Math.max(start, offsets[c]) - offsets[c],
+                            Math.min(end, last) - offsets[c], words, offset + offsets[c]);
+                }
+            }
+        }
+
+        @Override
+        public Block<V> writable() {
+            final Block<V> block = create(type, size);
+            for (int c = 0; c < chunks.length; c++) {
+                final int end = c + 1 < chunks.length ? offsets[c + 1] : size;
+                for (int i = 0; i < end - offsets[c]; i++) {
+                    @SuppressWarnings("unchecked")
+                    final V value = chunks[c] == null ? null : (V)chunks[c].get(i);
+                    block.add(value);
+                }
+            }
+            return block;
+        }
+
+        @Override
+        public Block<V> promote(final Object value) {
+            final Block<V> block = writable();
+            return block.accepts(value) ? block : block.promote(value);
+        }
+
+        @Override
+        public Block<V> copy() {
+            // chunks are never modified so they can be shared again
+            return new ChunkedBlock<>(this);
+        }
+
+        @Override
+        protected int capacity() {
+            return size;
+        }
+
+        @Override
+        protected void grow(final int capacity) {
+            throw new UnsupportedOperationException("chunked blocks are read only");
+        }
+    }
+}
@@ -21,49 +21,141 @@ package joinery.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 public class BlockManager<V> {
-    private final List<List<V>> blocks;
+    private final List<Block<V>> blocks;
+    private static final Integer[] NONE = new Integer[0];
+    private Integer[] sorted = NONE;
 
     public BlockManager() {
         this(Collections.<List<V>>emptyList());
     }
 
     public BlockManager(final Collection<? extends Collection<? extends V>> data) {
-        blocks = new LinkedList<>();
+        blocks = new ArrayList<>(data.size());
         for (final Collection<? extends V> col : data) {
-            add(new ArrayList<>(col));
+            add(Block.<V>of(col));
         }
     }
 
     public void reshape(final int cols, final int rows) {
+        sorted = NONE;
         for (int c = blocks.size(); c < cols; c++) {
-            add(new ArrayList<V>(rows));
+            add(Block.<V>create(null, rows));
         }
 
-        for (final List<V> block : blocks) {
-            for (int r = block.size(); r < rows; r++) {
-                block.add(null);
+        for (int c = 0; c < blocks.size(); c++) {
+            if (blocks.get(c).size() < rows) {
+                final Block<V> block = writable(c);
+                block.ensureCapacity(rows);
+                for (int r = block.size(); r < rows; r++) {
+                    block.add(null);
+                }
             }
         }
     }
 
+    public void append(final List<? extends V> row) {
+        sorted = NONE;
+        final int len = length();
+        for (int c = blocks.size(); c < row.size(); c++) {
+            add(Block.<V>create(null, len + 1));
+        }
+
+        for (int c = 0; c < blocks.size(); c++) {
+            final V value = c < row.size() ? row.get(c) : null;
+            Block<V> block = writable(c);
+            if (!block.accepts(value)) {
+                block = block.promote(value);
+                blocks.set(c, block);
+            }
+            block.add(value);
+        }
+    }
+
+    public void ensureCapacity(final int rows) {
+        for (int c = 0; c < blocks.size(); c++) {
+            if (blocks.get(c).size() < rows) {
+                writable(c).ensureCapacity(rows);
+            }
+        }
+    }
+
+    public Block<V> block(final int col) {
+        return blocks.get(col);
+    }
+
     public V get(final int col, final int row) {
         return blocks.get(col).get(row);
     }
 
     public void set(final V value, final int col, final int row) {
-        blocks.get(col).set(row, value);
+        sorted = NONE;
+        Block<V> block = writable(col);
+        if (!block.accepts(value)) {
+            block = block.promote(value);
+            blocks.set(col, block);
+        }
+        block.set(row, value);
     }
 
     public void add(final List<V> col) {
+        @SuppressWarnings("unchecked")
+        Block<V> block = col instanceof Block ? Block.class.cast(col) : Block.of(col);
         final int len = length();
-        for (int r = col.size(); r < len; r++) {
-            col.add(null);
+        if (block.size() < len) {
+            block = block.writable();
+        }
+        block.ensureCapacity(len);
+        for (int r = block.size(); r < len; r++) {
+            block.add(null);
+        }
+        blocks.add(block);
+    }
+
+    /**
+     * Return the block for the specified column, first replacing
+     * it with a copy if it is shared with another data frame.
+     */
+    private Block<V> writable(final int col) {
+        final Block<V> block = blocks.get(col);
+        final Block<V> writable = block.writable();
+        if (writable != block) {
+            blocks.set(col, writable);
+        }
+        return writable;
+    }
+
+    /**
+     * Record that the rows are in ascending order on the specified
+     * columns, which hold no missing values.  The order is forgotten
+     * as soon as any value is changed or a row is added.
+     */
+    public void setSorted(final Integer[] cols) {
+        sorted = cols.clone();
+    }
+
+    /**
+     * Return whether the rows are known to be in ascending order
+     * on the specified columns without checking the values.
+     */
+    public boolean isSorted(final Integer[] cols) {
+        if (cols.length == 0 || cols.length > sorted.length) {
+            return false;
+        }
+        for (int i = 0; i < cols.length; i++) {
+            if (!sorted[i].equals(cols[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void compact() {
+        for (int c = 0; c < blocks.size(); c++) {
+            blocks.set(c, blocks.get(c).compact());
         }
-        blocks.add(col);
     }
 
     public int size() {
@@ -74,4 +166,3 @@ public class BlockManager<V> {
         return blocks.isEmpty() ? 0 : blocks.get(0).size();
     }
 }
-
@@ -0,0 +1,55 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+/**
+ * A blocked bloom filter of hash codes, setting four bits within
+ * a single word for each key so a test touches one cache line.
+ * Sized at sixteen bits per key the false positive rate is
+ * roughly one percent.
+ */
+public class BloomFilter {
+    private static final int BITS_PER_KEY = 16;
+
+    private final long[] words;
+    private final int mask;
+
+    public BloomFilter(final int keys) {
+        final long bits = Math.max(Long.SIZE, (long)keys * BITS_PER_KEY);
+        final int count = (int)Math.min(1 << 30, Long.highestOneBit(bits / Long.SIZE - 1) << 1);
+        words = new long[Math.max(1, count)];
+        mask = words.length - 1;
+    }
+
+    private static long bits(final int hash) {
+        // the high bits of the product are independent of the word index
+        final long h = hash * 0x9e3779b97f4a7c15L;
+        return 1L << (h >>> 58) | 1L << (h >>> 52 & 63) |
+               1L << (h >>> 46 & 63) | 1L << (h >>> 40 & 63);
+    }
+
+    public void add(final int hash) {
+        words[hash & mask] |= bits(hash);
+    }
+
+    public boolean mightContain(final int hash) {
+        final long bits = bits(hash);
+        return (words[hash & mask] & bits) == bits;
+    }
+}
@@ -18,45 +18,513 @@
 
 package joinery.impl;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import joinery.DataFrame;
+import joinery.DataFrame.AsofDirection;
 import joinery.DataFrame.JoinType;
 import joinery.DataFrame.KeyFunction;
 
 public class Combining {
-    public static <V> DataFrame<V> join(final DataFrame<V> left, final DataFrame<V> right, final JoinType how, final KeyFunction<V> on) {
-        final Iterator<Object> leftIt = left.index().iterator();
-        final Iterator<Object> rightIt = right.index().iterator();
-        final Map<Object, List<V>> leftMap = new LinkedHashMap<>();
-        final Map<Object, List<V>> rightMap = new LinkedHashMap<>();
+    protected static int prefilter = 1 << 16;
 
-        for (final List<V> row : left) {
-            final Object name = leftIt.next();
-            final Object key = on == null ? name : on.apply(row);
-            if (leftMap.put(key, row) != null) {
-                throw new IllegalArgumentException("generated key is not unique: " + key);
+    public static int getPrefilterThreshold() {
+        return prefilter;
+    }
+
+    /**
+     * Set the minimum number of rows in the other data frame of a
+     * semi-join or anti-join for its keys to also be added to a bloom
+     * filter, which rejects most missing keys before they are looked
+     * up in the larger hash table.
+     *
+     * @param threshold the number of rows, {@code Integer.MAX_VALUE}
+     *        disables the bloom filter
+     */
+    public static void setPrefilterThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("invalid threshold " + threshold);
+        }
+        prefilter = threshold;
+    }
+
+    /**
+     * Join two data frames using hash tables built from the keys of
+     * the smaller one and probed with the keys of the larger one.
+     * Matching row positions are collected into gather vectors so
+     * that each column of the result is copied in a single pass.
+     * Rows are output in the order of the left data frame (the right
+     * data frame for right joins) with each key's matches in order.
+     * The keys are used as the row names of the result unless they
+     * are not unique, in which case the rows are numbered instead.
+     */
+    public static <V> Joined<V> join(
+            final DataFrame<V> left, final BlockManager<V> leftData,
+            final DataFrame<V> right, final BlockManager<V> rightData,
+            final JoinType how, final KeyFunction<V> on) {
+        final boolean swap = how == JoinType.RIGHT;
+        final DataFrame<V> a = swap ? right : left;
+        final DataFrame<V> b = swap ? left : right;
+        final Object[] aKeys = keys(a, on);
+        final Object[] bKeys = keys(b, on);
+
+        final Matches matches = match(new ObjectKeys(aKeys), new ObjectKeys(bKeys), how);
+        final int[] aRows = matches.aRows;
+        final int[] bRows = matches.bRows;
+
+        final Object[] names = new Object[aRows.length];
+        for (int i = 0; i < aRows.length; i++) {
+            names[i] = aRows[i] >= 0 ? aKeys[aRows[i]] : bKeys[bRows[i]];
+        }
+
+        return combine(left.columns(), leftData, right.columns(), rightData, how, matches,
+                Arrays.asList(names), new ObjectKeys(names));
+    }
+
+    /**
+     * Gather the columns of the result of a join, using the names
+     * as the row names of the result if the keys, one for each row
+     * of the result, are unique.
+     */
+    static <V> Joined<V> combine(
+            final Collection<Object> leftColumns, final BlockManager<V> leftData,
+            final Collection<Object> rightColumns, final BlockManager<V> rightData,
+            final JoinType how, final Matches matches, final List<Object> names, final Keys keys) {
+        final boolean swap = how == JoinType.RIGHT;
+        final BlockManager<V> aData = swap ? rightData : leftData;
+        final BlockManager<V> bData = swap ? leftData : rightData;
+        final int aSize = aData.size();
+        final int size = aSize + bData.size();
+        final int[] bounds = matches.aRows.length < Parallel.getThreshold() ?
+                new int[] { 0, size } : Parallel.each(size);
+        // the gathered blocks are new so they are added without copying
+        final BlockManager<V> data = new BlockManager<>();
+        for (final List<Block<V>> taken : Parallel.apply(bounds, new Parallel.RangeFunction<List<Block<V>>>() {
+                @Override
+                public List<Block<V>> apply(final int start, final int end) {
+                    final List<Block<V>> taken = new ArrayList<>(end - start);
+                    for (int c = start; c < end; c++) {
+                        taken.add(c < aSize ? aData.block(c).take(matches.aRows) :
+                                bData.block(c - aSize).take(matches.bRows));
+                    }
+                    return taken;
+                }
+            })) {
+            for (final Block<V> block : taken) {
+                data.add(block);
             }
         }
 
-        for (final List<V> row : right) {
-            final Object name = rightIt.next();
-            final Object key = on == null ? name : on.apply(row);
-            if (rightMap.put(key, row) != null) {
-                throw new IllegalArgumentException("generated key is not unique: " + key);
+        return new Joined<>(
+                keys == null || unique(keys) ? names : Collections.emptyList(),
+                columns(leftColumns, rightColumns, how),
+                data
+            );
+    }
+
+    /**
+     * The row names, column names and data of the result of a join,
+     * from which the data frame is created without copying the data.
+     */
+    public static final class Joined<V> {
+        private final List<Object> index;
+        private final List<Object> columns;
+        private final BlockManager<V> data;
+
+        private Joined(final List<Object> index, final List<Object> columns, final BlockManager<V> data) {
+            this.index = index;
+            this.columns = columns;
+            this.data = data;
+        }
+
+        public List<Object> index() {
+            return index;
+        }
+
+        public List<Object> columns() {
+            return columns;
+        }
+
+        public BlockManager<V> data() {
+            return data;
+        }
+    }
+
+    private static <V> Object[] keys(final DataFrame<V> df, final KeyFunction<V> on) {
+        final Object[] keys = new Object[df.length()];
+        if (on == null) {
+            final Iterator<Object> it = df.index().iterator();
+            for (int r = 0; r < keys.length; r++) {
+                keys[r] = it.next();
             }
+        } else {
+            int r = 0;
+            for (final List<V> row : df) {
+                keys[r++] = on.apply(row);
+            }
+        }
+        return keys;
+    }
+
+    static final class Matches {
+        private final int[] aRows;
+        private final int[] bRows;
+
+        Matches(final int[] aRows, final int[] bRows) {
+            this.aRows = aRows;
+            this.bRows = bRows;
         }
+    }
+
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+
+    /**
+     * The join keys of one input, hashed and compared
+     * row by row without creating a key object per row.
+     */
+    abstract static class Keys {
+        protected abstract int length();
+
+        protected abstract int hash(int row);
+
+        protected abstract boolean equal(int row, Keys other, int otherRow);
+    }
+
+    private static final class ObjectKeys
+    extends Keys {
+        private final Object[] keys;
+
+        private ObjectKeys(final Object[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        protected int length() {
+            return keys.length;
+        }
+
+        @Override
+        protected int hash(final int row) {
+            return mix(keys[row] == null ? 0 : keys[row].hashCode());
+        }
+
+        @Override
+        protected boolean equal(final int row, final Keys other, final int otherRow) {
+            final Object key = keys[row];
+            final Object otherKey = ObjectKeys.class.cast(other).keys[otherRow];
+            return key == null ? otherKey == null : key.equals(otherKey);
+        }
+    }
+
+    /**
+     * Keys taken directly from columns, comparing the primitive
+     * encoding of values where both inputs use the same primitive
+     * block type for a column and the values themselves otherwise.
+     */
+    static final class ColumnKeys
+    extends Keys {
+        private final Block<?>[] blocks;
+        private final boolean[] primitive;
+        private final int length;
+
+        <V> ColumnKeys(final BlockManager<V> data, final Integer[] cols,
+                final BlockManager<V> other, final Integer[] otherCols) {
+            blocks = new Block<?>[cols.length];
+            primitive = new boolean[cols.length];
+            for (int k = 0; k < cols.length; k++) {
+                blocks[k] = data.block(cols[k]);
+                primitive[k] = blocks[k].type() != Object.class &&
+                        blocks[k].type() == other.block(otherCols[k]).type();
+            }
+            length = data.length();
+        }
+
+        @Override
+        protected int length() {
+            return length;
+        }
+
+        @Override
+        protected int hash(final int row) {
+            long h = 0;
+            for (final Block<?> block : blocks) {
+                h = h * 31 + (block.isNull(row) ? 0 : valueHash(block, row));
+            }
+            return mix(h);
+        }
+
+        @Override
+        protected boolean equal(final int row, final Keys other, final int otherRow) {
+            final Block<?>[] others = ColumnKeys.class.cast(other).blocks;
+            for (int k = 0; k < blocks.length; k++) {
+                final boolean isnull = blocks[k].isNull(row);
+                if (isnull != others[k].isNull(otherRow)) {
+                    return false;
+                }
+                if (!isnull && (primitive[k] ?
+                        blocks[k].bits(row) != others[k].bits(otherRow) :
+                        !blocks[k].get(row).equals(others[k].get(otherRow)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Return the hash code of the boxed value at the specified row,
+     * computed from the primitive encoding where possible so the
+     * same value hashes alike whichever block type holds it.
+     */
+    private static int valueHash(final Block<?> block, final int row) {
+        final Class<?> type = block.type();
+        if (type == Double.class || type == Long.class) {
+            final long bits = block.bits(row);
+            return (int)(bits ^ (bits >>> 32));
+        } else if (type == Integer.class) {
+            return (int)block.bits(row);
+        } else if (type == Boolean.class) {
+            return block.bits(row) != 0 ? 1231 : 1237;
+        }
+        return block.get(row).hashCode();
+    }
 
-        final List<Object> columns = new ArrayList<>(how != JoinType.RIGHT ? left.columns() : right.columns());
-        for (Object column : how != JoinType.RIGHT ? right.columns() : left.columns()) {
+    /**
+     * Return the number of hash partitions for inputs of the
+     * specified total length, a power of two so partitions
+     * can be assigned using the high bits of the hash.
+     */
+    private static int partitions(final int length) {
+        final int ranges = Parallel.partition(length).length - 1;
+        return ranges > 1 ? Integer.highestOneBit(ranges) << 2 : 1;
+    }
+
+    static int[] hashes(final Keys keys) {
+        final int[] hashes = new int[keys.length()];
+        Parallel.apply(Parallel.partition(hashes.length), new Parallel.RangeFunction<Void>() {
+            @Override
+            public Void apply(final int start, final int end) {
+                for (int r = start; r < end; r++) {
+                    hashes[r] = keys.hash(r);
+                }
+                return null;
+            }
+        });
+        return hashes;
+    }
+
+    /**
+     * Order the rows by partition, keeping row order within each
+     * partition, and return them with the partition offsets.
+     */
+    private static int[][] scatter(final int[] hashes, final int parts) {
+        final int shift = Integer.numberOfLeadingZeros(parts) + 1;
+        final int[] offsets = new int[parts + 1];
+        if (parts > 1) {
+            for (final int hash : hashes) {
+                offsets[(hash >>> shift) + 1]++;
+            }
+        } else {
+            offsets[1] = hashes.length;
+        }
+        for (int p = 0; p < parts; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+
+        final int[] rows = new int[hashes.length];
+        final int[] next = Arrays.copyOf(offsets, parts);
+        for (int r = 0; r < hashes.length; r++) {
+            rows[next[parts > 1 ? hashes[r] >>> shift : 0]++] = r;
+        }
+        return new int[][] { rows, offsets };
+    }
+
+    /**
+     * Join the keys of {@code a} with the keys of {@code b}.  The rows
+     * of both inputs are split into partitions by hash, each partition
+     * is joined independently on the fork-join pool using a table built
+     * from the smaller input, and the matches are then placed in the
+     * order of the {@code a} rows so the result does not depend on the
+     * number of partitions.
+     */
+    private static Matches match(final Keys a, final Keys b, final JoinType how) {
+        final int aLen = a.length();
+        final int bLen = b.length();
+        final boolean swap = aLen < bLen;
+        final Keys build = swap ? a : b;
+        final Keys probe = swap ? b : a;
+
+        final int parts = partitions(aLen + bLen);
+        final int[] buildHashes = hashes(build);
+        final int[] probeHashes = hashes(probe);
+        final int[][] buildParts = scatter(buildHashes, parts);
+        final int[][] probeParts = scatter(probeHashes, parts);
+
+        final int[] counts = new int[aLen];
+        final boolean[] matched = new boolean[bLen];
+        final List<Gather> results = Parallel.apply(Parallel.each(parts), new Parallel.RangeFunction<Gather>() {
+            @Override
+            public Gather apply(final int start, final int end) {
+                final Gather gather = new Gather();
+                for (int p = start; p < end; p++) {
+                    final int[] rows = buildParts[0];
+                    final int first = buildParts[1][p];
+                    final int n = buildParts[1][p + 1] - first;
+
+                    // chained table of build rows, each chain in row order
+                    final int mask = Math.max(16, Integer.highestOneBit(Math.max(1, n) - 1) << 2) - 1;
+                    final int[] heads = new int[mask + 1];
+                    final int[] tails = new int[mask + 1];
+                    final int[] next = new int[n + 1];
+                    for (int i = 1; i <= n; i++) {
+                        final int row = rows[first + i - 1];
+                        int slot = buildHashes[row] & mask;
+                        for ( ; heads[slot] != 0; slot = (slot + 1) & mask) {
+                            final int head = rows[first + heads[slot] - 1];
+                            if (buildHashes[head] == buildHashes[row] && build.equal(head, build, row)) {
+                                break;
+                            }
+                        }
+                        if (heads[slot] == 0) {
+                            heads[slot] = i;
+                        } else {
+                            next[tails[slot]] = i;
+                        }
+                        tails[slot] = i;
+                    }
+
+                    for (int q = probeParts[1][p]; q < probeParts[1][p + 1]; q++) {
+                        final int row = probeParts[0][q];
+                        int slot = probeHashes[row] & mask;
+                        for ( ; heads[slot] != 0; slot = (slot + 1) & mask) {
+                            final int head = rows[first + heads[slot] - 1];
+                            if (buildHashes[head] == probeHashes[row] && probe.equal(row, build, head)) {
+                                break;
+                            }
+                        }
+                        for (int i = heads[slot]; i != 0; i = next[i]) {
+                            final int match = rows[first + i - 1];
+                            final int aRow = swap ? match : row;
+                            final int bRow = swap ? row : match;
+                            gather.add(aRow, bRow);
+                            counts[aRow]++;
+                            matched[bRow] = true;
+                        }
+                    }
+                }
+                return gather;
+            }
+        });
+
+        final boolean outer = how != JoinType.INNER;
+        final int[] offsets = new int[aLen + 1];
+        for (int r = 0; r < aLen; r++) {
+            offsets[r + 1] = offsets[r] + (counts[r] == 0 && outer ? 1 : counts[r]);
+        }
+        int extra = 0;
+        if (how == JoinType.OUTER) {
+            for (final boolean m : matched) {
+                extra += m ? 0 : 1;
+            }
+        }
+
+        final int len = offsets[aLen];
+        final int[] aRows = new int[len + extra];
+        final int[] bRows = new int[len + extra];
+        final int[] next = Arrays.copyOf(offsets, aLen);
+        // partitions hold disjoint rows of a, so their matches can be
+        // placed concurrently, each keeping the order of its b rows
+        Parallel.apply(Parallel.each(results.size()), new Parallel.RangeFunction<Void>() {
+            @Override
+            public Void apply(final int start, final int end) {
+                for (int p = start; p < end; p++) {
+                    final Gather gather = results.get(p);
+                    for (int g = 0; g < gather.size; g++) {
+                        final int i = next[gather.aRows[g]]++;
+                        aRows[i] = gather.aRows[g];
+                        bRows[i] = gather.bRows[g];
+                    }
+                }
+                return null;
+            }
+        });
+        if (outer) {
+            for (int r = 0; r < aLen; r++) {
+                if (counts[r] == 0) {
+                    aRows[offsets[r]] = r;
+                    bRows[offsets[r]] = -1;
+                }
+            }
+        }
+        for (int r = 0, i = len; i < len + extra; r++) {
+            if (!matched[r]) {
+                aRows[i] = -1;
+                bRows[i++] = r;
+            }
+        }
+
+        return new Matches(aRows, bRows);
+    }
+
+    /**
+     * Return whether no two rows have equal keys, checking the
+     * hash partitions of the rows concurrently.
+     */
+    private static boolean unique(final Keys keys) {
+        final int[] hashes = hashes(keys);
+        final int[][] parts = scatter(hashes, partitions(hashes.length));
+        final int[] rows = parts[0];
+        final int[] offsets = parts[1];
+        for (final Boolean unique : Parallel.apply(Parallel.each(offsets.length - 1), new Parallel.RangeFunction<Boolean>() {
+                @Override
+                public Boolean apply(final int start, final int end) {
+                    for (int p = start; p < end; p++) {
+                        final int first = offsets[p];
+                        final int n = offsets[p + 1] - first;
+                        final int mask = Math.max(16, Integer.highestOneBit(Math.max(1, n) - 1) << 2) - 1;
+                        final int[] table = new int[mask + 1];
+                        for (int i = 1; i <= n; i++) {
+                            final int row = rows[first + i - 1];
+                            int slot = hashes[row] & mask;
+                            for ( ; table[slot] != 0; slot = (slot + 1) & mask) {
+                                final int other = rows[first + table[slot] - 1];
+                                if (hashes[other] == hashes[row] && keys.equal(row, keys, other)) {
+                                    return false;
+                                }
+                            }
+                            table[slot] = i;
+                        }
+                    }
+                    return true;
+                }
+            })) {
+            if (!unique) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Object> columns(
+            final Collection<Object> leftColumns, final Collection<Object> rightColumns, final JoinType how) {
+        final List<Object> columns = new ArrayList<>(how != JoinType.RIGHT ? leftColumns : rightColumns);
+        for (Object column : how != JoinType.RIGHT ? rightColumns : leftColumns) {
             final int index = columns.indexOf(column);
             if (index >= 0) {
                 if (column instanceof List) {
@@ -73,50 +541,557 @@ public class Combining {
             }
             columns.add(column);
         }
+        return columns;
+    }
+
+    /**
+     * Join two data frames on the specified columns, using a merge
+     * join if both are known to be sorted in ascending order on those
+     * columns and a partitioned hash join on the column values otherwise.
+     * If {@code sorted} is {@code true} the data frames are checked and
+     * required to be sorted.
+     */
+    public static <V> Joined<V> joinOn(
+            final DataFrame<V> left, final BlockManager<V> leftData,
+            final DataFrame<V> right, final BlockManager<V> rightData,
+            final JoinType how, final boolean sorted, final Integer ... cols) {
+        final boolean swap = how == JoinType.RIGHT;
+        final BlockManager<V> aData = swap ? rightData : leftData;
+        final BlockManager<V> bData = swap ? leftData : rightData;
+        final Matches matches;
+        if (sorted ? sorted(leftData, rightData, cols) : presorted(leftData, rightData, cols)) {
+            matches = merge(aData, bData, how, cols);
+        } else if (sorted) {
+            throw new IllegalArgumentException(
+                    "data frames are not sorted on columns " + Arrays.toString(cols));
+        } else {
+            matches = match(new ColumnKeys(aData, cols, bData, cols), new ColumnKeys(bData, cols, aData, cols), how);
+        }
+
+        return combine(left.columns(), leftData, right.columns(), rightData, how, matches,
+                names(aData, cols, bData, cols, matches),
+                new GatheredKeys(new ColumnKeys(aData, cols, bData, cols), new ColumnKeys(bData, cols, aData, cols), matches));
+    }
+
+    /**
+     * Return whether both inputs are sorted on the columns
+     * with values of the same types, checking every row.
+     */
+    private static <V> boolean sorted(
+            final BlockManager<V> leftData, final BlockManager<V> rightData, final Integer[] cols) {
+        final Class<?>[] leftTypes = sorted(leftData, cols);
+        return leftTypes != null && Arrays.equals(leftTypes, sorted(rightData, cols));
+    }
+
+    /**
+     * Return whether both inputs were left sorted on the columns
+     * by {@link DataFrame#sortBy(Object...)} with values of the same
+     * primitive types, without looking at the rows.
+     */
+    private static <V> boolean presorted(
+            final BlockManager<V> leftData, final BlockManager<V> rightData, final Integer[] cols) {
+        if (!leftData.isSorted(cols) || !rightData.isSorted(cols)) {
+            return false;
+        }
+        for (final int c : cols) {
+            if (leftData.block(c).type() != rightData.block(c).type()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        final DataFrame<V> df = new DataFrame<>(columns);
-        for (final Map.Entry<Object, List<V>> entry : how != JoinType.RIGHT ? leftMap.entrySet() : rightMap.entrySet()) {
-            final List<V> tmp = new ArrayList<>(entry.getValue());
-            final List<V> row = how != JoinType.RIGHT ? rightMap.get(entry.getKey()) : leftMap.get(entry.getKey());
-            if (row != null || how != JoinType.INNER) {
-                tmp.addAll(row != null ? row : Collections.<V>nCopies(right.columns().size(), null));
-                df.append(entry.getKey(), tmp);
+    /**
+     * Return the type of each column if the rows are sorted in
+     * ascending order on the columns and every value is a non-null
+     * comparable of the same type, otherwise return {@code null}.
+     */
+    private static <V> Class<?>[] sorted(final BlockManager<V> data, final Integer[] cols) {
+        final int len = data.length();
+        final Class<?>[] types = new Class<?>[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            for (int r = 0; r < len; r++) {
+                final V value = data.get(cols[i], r);
+                if (!(value instanceof Comparable) ||
+                        types[i] != null && types[i] != value.getClass()) {
+                    return null;
+                }
+                types[i] = value.getClass();
             }
         }
 
+        for (int r = 1; r < len; r++) {
+            if (compare(data, r - 1, data, r, cols) > 0) {
+                return null;
+            }
+        }
+        return types;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> int compare(
+            final BlockManager<V> d1, final int r1, final BlockManager<V> d2, final int r2, final Integer[] cols) {
+        for (final int c : cols) {
+            final int result = Comparable.class.cast(d1.get(c, r1)).compareTo(d2.get(c, r2));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    static <V> Object key(final BlockManager<V> data, final int row, final Integer[] cols) {
+        final List<V> key = new ArrayList<>(cols.length);
+        for (final int c : cols) {
+            key.add(data.get(c, row));
+        }
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Return the key columns of each row of the result of a join as
+     * the row names, creating the key lists only when they are read
+     * so none are created if the keys turn out not to be unique.
+     */
+    static <V> List<Object> names(final BlockManager<V> aData, final Integer[] aCols,
+            final BlockManager<V> bData, final Integer[] bCols, final Matches matches) {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(final int i) {
+                return matches.aRows[i] >= 0 ?
+                        key(aData, matches.aRows[i], aCols) : key(bData, matches.bRows[i], bCols);
+            }
+
+            @Override
+            public int size() {
+                return matches.aRows.length;
+            }
+        };
+    }
+
+    /**
+     * The keys of the rows of the result of a join, taken from the
+     * matched row of either input without gathering them.
+     */
+    static final class GatheredKeys
+    extends Keys {
+        private final Keys a;
+        private final Keys b;
+        private final Matches matches;
+
+        GatheredKeys(final Keys a, final Keys b, final Matches matches) {
+            this.a = a;
+            this.b = b;
+            this.matches = matches;
+        }
+
+        @Override
+        protected int length() {
+            return matches.aRows.length;
+        }
+
+        @Override
+        protected int hash(final int row) {
+            return matches.aRows[row] >= 0 ? a.hash(matches.aRows[row]) : b.hash(matches.bRows[row]);
+        }
+
+        @Override
+        protected boolean equal(final int row, final Keys other, final int otherRow) {
+            final GatheredKeys keys = GatheredKeys.class.cast(other);
+            final Keys k1 = matches.aRows[row] >= 0 ? a : b;
+            final int r1 = matches.aRows[row] >= 0 ? matches.aRows[row] : matches.bRows[row];
+            final Keys k2 = keys.matches.aRows[otherRow] >= 0 ? keys.a : keys.b;
+            final int r2 = keys.matches.aRows[otherRow] >= 0 ? keys.matches.aRows[otherRow] : keys.matches.bRows[otherRow];
+            return k1.equal(r1, k2, r2);
+        }
+    }
+
+    /**
+     * A growable pair of gather vectors.
+     */
+    private static final class Gather {
+        private int[] aRows = new int[16];
+        private int[] bRows = new int[16];
+        private int size = 0;
+
+        private void add(final int a, final int b) {
+            if (size == aRows.length) {
+                aRows = Arrays.copyOf(aRows, size << 1);
+                bRows = Arrays.copyOf(bRows, size << 1);
+            }
+            aRows[size] = a;
+            bRows[size++] = b;
+        }
+
+        private void addAll(final Gather other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.aRows[i], other.bRows[i]);
+            }
+        }
+
+        private Matches matches() {
+            return new Matches(Arrays.copyOf(aRows, size), Arrays.copyOf(bRows, size));
+        }
+    }
+
+    /**
+     * Merge two inputs sorted on the key columns in a single pass,
+     * producing the same rows in the same order as a hash join.
+     */
+    private static <V> Matches merge(
+            final BlockManager<V> aData, final BlockManager<V> bData, final JoinType how, final Integer[] cols) {
+        final int aLen = aData.length();
+        final int bLen = bData.length();
+        final boolean outer = how != JoinType.INNER;
+        final Gather gather = new Gather();
+        final Gather unmatched = new Gather();
+
+        int i = 0;
+        int j = 0;
+        while (i < aLen && j < bLen) {
+            final int result = compare(aData, i, bData, j, cols);
+            if (result < 0) {
+                if (outer) {
+                    gather.add(i, -1);
+                }
+                i++;
+            } else if (result > 0) {
+                if (how == JoinType.OUTER) {
+                    unmatched.add(-1, j);
+                }
+                j++;
+            } else {
+                int end = j + 1;
+                while (end < bLen && compare(bData, j, bData, end, cols) == 0) {
+                    end++;
+                }
+                do {
+                    for (int m = j; m < end; m++) {
+                        gather.add(i, m);
+                    }
+                    i++;
+                } while (i < aLen && compare(aData, i, bData, j, cols) == 0);
+                j = end;
+            }
+        }
+
+        for ( ; outer && i < aLen; i++) {
+            gather.add(i, -1);
+        }
         if (how == JoinType.OUTER) {
-            for (final Map.Entry<Object, List<V>> entry : how != JoinType.RIGHT ? rightMap.entrySet() : leftMap.entrySet()) {
-                final List<V> row = how != JoinType.RIGHT ? leftMap.get(entry.getKey()) : rightMap.get(entry.getKey());
-                if (row == null) {
-                    final List<V> tmp = new ArrayList<>(Collections.<V>nCopies(
-                        how != JoinType.RIGHT ? left.columns().size() : right.columns().size(), null));
-                    tmp.addAll(entry.getValue());
-                    df.append(entry.getKey(), tmp);
+            for ( ; j < bLen; j++) {
+                unmatched.add(-1, j);
+            }
+            gather.addAll(unmatched);
+        }
+        return gather.matches();
+    }
+
+    /**
+     * A hash table of the distinct keys of one input,
+     * numbered in order of appearance.
+     */
+    static final class KeyTable {
+        private final Keys keys;
+        private final int[] hashes;
+        final int[] codes;
+        private final int[] rows;
+        private final int[] numbers;
+        private final int mask;
+
+        KeyTable(final Keys keys) {
+            this.keys = keys;
+            hashes = hashes(keys);
+            codes = new int[keys.length()];
+            mask = Math.max(16, Integer.highestOneBit(Math.max(1, codes.length) - 1) << 2) - 1;
+            rows = new int[mask + 1];
+            numbers = new int[mask + 1];
+
+            int count = 0;
+            for (int r = 0; r < codes.length; r++) {
+                final int slot = slot(keys, r, hashes[r]);
+                if (rows[slot] == 0) {
+                    rows[slot] = r + 1;
+                    numbers[slot] = count++;
                 }
+                codes[r] = numbers[slot];
+            }
+        }
+
+        private int slot(final Keys other, final int row, final int hash) {
+            int slot = hash & mask;
+            while (rows[slot] != 0 &&
+                    !(hashes[rows[slot] - 1] == hash && other.equal(row, keys, rows[slot] - 1))) {
+                slot = (slot + 1) & mask;
             }
+            return slot;
         }
 
-        return df;
+        /**
+         * Return the number of the key equal to the specified
+         * row of the other keys or {@code -1} if there is none.
+         */
+        int find(final Keys other, final int row, final int hash) {
+            final int slot = slot(other, row, hash);
+            return rows[slot] != 0 ? numbers[slot] : -1;
+        }
+    }
+
+    /**
+     * Number the distinct keys of {@code b} in order of appearance,
+     * returning the numbers for the rows of {@code a}, or {@code -1}
+     * where {@code b} has no equal key, and for the rows of {@code b}.
+     */
+    private static int[][] codes(final Keys a, final Keys b) {
+        final KeyTable table = new KeyTable(b);
+        final int[] aHashes = hashes(a);
+        final int[] aCodes = new int[a.length()];
+        for (int r = 0; r < aCodes.length; r++) {
+            aCodes[r] = table.find(a, r, aHashes[r]);
+        }
+        return new int[][] { aCodes, table.codes };
+    }
+
+    /**
+     * Return the positions of the rows of the left data frame whose keys
+     * are present in the right data frame, or are absent if {@code anti}
+     * is {@code true}.  Only the distinct keys of the right data frame
+     * are stored and no columns are copied.
+     */
+    public static <V> int[] semiJoin(
+            final BlockManager<V> leftData, final Integer[] leftCols,
+            final BlockManager<V> rightData, final Integer[] rightCols,
+            final boolean anti) {
+        if (leftCols.length != rightCols.length) {
+            throw new IllegalArgumentException("semi-join requires the same number of columns");
+        }
+
+        final Keys a = new ColumnKeys(leftData, leftCols, rightData, rightCols);
+        final KeyTable table = new KeyTable(new ColumnKeys(rightData, rightCols, leftData, leftCols));
+        final BloomFilter filter;
+        if (table.codes.length >= prefilter) {
+            filter = new BloomFilter(table.codes.length);
+            for (final int hash : table.hashes) {
+                filter.add(hash);
+            }
+        } else {
+            filter = null;
+        }
+
+        final int[] hashes = hashes(a);
+        final boolean[] found = new boolean[hashes.length];
+        Parallel.apply(Parallel.partition(hashes.length), new Parallel.RangeFunction<Void>() {
+            @Override
+            public Void apply(final int start, final int end) {
+                for (int r = start; r < end; r++) {
+                    found[r] = (filter == null || filter.mightContain(hashes[r])) &&
+                            table.find(a, r, hashes[r]) >= 0;
+                }
+                return null;
+            }
+        });
+
+        int count = 0;
+        for (final boolean f : found) {
+            count += f != anti ? 1 : 0;
+        }
+        final int[] rows = new int[count];
+        for (int r = 0, i = 0; i < count; r++) {
+            if (found[r] != anti) {
+                rows[i++] = r;
+            }
+        }
+        return rows;
+    }
+
+    private static boolean integral(final Block<?> block) {
+        final Class<?> type = block.type();
+        if (type != Object.class) {
+            return type == Long.class || type == Integer.class;
+        }
+        for (final Object value : block) {
+            if (value instanceof Number && !(value instanceof Long || value instanceof Integer ||
+                    value instanceof Short || value instanceof Byte)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode the values of an as-of join key as longs that compare
+     * like the original values, either as integers (with dates as
+     * milliseconds) or as the bits of double values.
+     */
+    private static long[] encode(final Block<?> block, final boolean integral) {
+        final long[] keys = new long[block.size()];
+        for (int r = 0; r < keys.length; r++) {
+            if (!block.isNull(r)) {
+                final Object value = block.get(r);
+                final Number number;
+                if (value instanceof Date) {
+                    number = Date.class.cast(value).getTime();
+                } else if (value instanceof Number) {
+                    number = Number.class.cast(value);
+                } else {
+                    throw new IllegalArgumentException("as-of join key is not a number or date: " + value);
+                }
+
+                if (integral) {
+                    keys[r] = number.longValue();
+                } else {
+                    final long bits = Double.doubleToLongBits(number.doubleValue());
+                    keys[r] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static double distance(final long k1, final long k2, final boolean integral) {
+        if (integral) {
+            return Math.abs((double)(k1 - k2));
+        }
+        final double d1 = Double.longBitsToDouble(k1 ^ ((k1 >> 63) & Long.MAX_VALUE));
+        final double d2 = Double.longBitsToDouble(k2 ^ ((k2 >> 63) & Long.MAX_VALUE));
+        return Math.abs(d1 - d2);
     }
 
-    public static <V> DataFrame<V> joinOn(final DataFrame<V> left, final DataFrame<V> right, final JoinType how, final Integer ... cols) {
-        return join(left, right, how, new KeyFunction<V>() {
+    /**
+     * Join each row of the left data frame with the row of the right
+     * data frame having the nearest {@code on} value in the specified
+     * direction, considering only right rows with equal {@code by}
+     * values.  The right rows are sorted by group and key once, after
+     * which each left row is matched with two binary searches.
+     */
+    public static <V> Joined<V> joinAsof(
+            final DataFrame<V> left, final BlockManager<V> leftData,
+            final DataFrame<V> right, final BlockManager<V> rightData,
+            final Integer leftOn, final Integer rightOn,
+            final Integer[] leftBy, final Integer[] rightBy,
+            final AsofDirection direction, final Number tolerance) {
+        if (leftBy.length != rightBy.length) {
+            throw new IllegalArgumentException("as-of join requires the same number of by columns");
+        }
+
+        final Block<V> aBlock = leftData.block(leftOn);
+        final Block<V> bBlock = rightData.block(rightOn);
+        final boolean integral = integral(aBlock) && integral(bBlock);
+        final long[] aKeys = encode(aBlock, integral);
+        final long[] bKeys = encode(bBlock, integral);
+        final int aLen = aKeys.length;
+        final int bLen = bKeys.length;
+
+        final int[][] codes = leftBy.length > 0 ?
+                codes(new ColumnKeys(leftData, leftBy, rightData, rightBy),
+                      new ColumnKeys(rightData, rightBy, leftData, leftBy)) :
+                new int[][] { new int[aLen], new int[bLen] };
+        final int[] aCodes = codes[0];
+        final int[] bCodes = codes[1];
+
+        // sort the right rows with keys by group then key
+        int len = 0;
+        final int[] candidates = new int[bLen];
+        for (int r = 0; r < bLen; r++) {
+            if (!bBlock.isNull(r)) {
+                candidates[len++] = r;
+            }
+        }
+        final long[] groupKeys = new long[len];
+        final long[] sortKeys = new long[len];
+        for (int i = 0; i < len; i++) {
+            groupKeys[i] = bCodes[candidates[i]];
+            sortKeys[i] = bKeys[candidates[i]] ^ Long.MIN_VALUE;
+        }
+        final int[] order = Sorting.sort(Arrays.asList(groupKeys, sortKeys), len);
+        final int[] rows = new int[len];
+        final long[] keys = new long[len];
+        int groups = 0;
+        for (int i = 0; i < len; i++) {
+            rows[i] = candidates[order[i]];
+            keys[i] = bKeys[rows[i]];
+            groups = Math.max(groups, bCodes[rows[i]] + 1);
+        }
+        final int[] offsets = new int[groups + 1];
+        for (int i = 0; i < len; i++) {
+            offsets[bCodes[rows[i]] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            offsets[g + 1] += offsets[g];
+        }
+
+        final int[] aRows = new int[aLen];
+        final int[] bRows = new int[aLen];
+        Parallel.apply(Parallel.partition(aLen), new Parallel.RangeFunction<Void>() {
             @Override
-            public Object apply(final List<V> value) {
-                final List<V> key = new ArrayList<>(cols.length);
-                for (final int col : cols) {
-                    key.add(value.get(col));
+            public Void apply(final int start, final int end) {
+                for (int r = start; r < end; r++) {
+                    aRows[r] = r;
+                    bRows[r] = -1;
+                    final int g = aCodes[r];
+                    if (aBlock.isNull(r) || g < 0 || g >= offsets.length - 1) {
+                        continue;
+                    }
+
+                    final long key = aKeys[r];
+                    final int lo = offsets[g];
+                    final int hi = offsets[g + 1];
+                    // first key greater than or equal to the row's key
+                    int first = lo;
+                    for (int high = hi; first < high; ) {
+                        final int mid = (first + high) >>> 1;
+                        if (keys[mid] < key) {
+                            first = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    // last key less than or equal to the row's key
+                    int last = first;
+                    for (int high = hi; last < high; ) {
+                        final int mid = (last + high) >>> 1;
+                        if (keys[mid] <= key) {
+                            last = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    last--;
+
+                    final int match;
+                    if (direction == AsofDirection.BACKWARD) {
+                        match = last >= lo ? last : -1;
+                    } else if (direction == AsofDirection.FORWARD) {
+                        match = first < hi ? first : -1;
+                    } else if (last < lo) {
+                        match = first < hi ? first : -1;
+                    } else if (first >= hi) {
+                        match = last;
+                    } else {
+                        // equal distances prefer the preceding key
+                        match = distance(key, keys[last], integral) <=
+                                distance(keys[first], key, integral) ? last : first;
+                    }
+
+                    if (match >= 0 && (tolerance == null ||
+                            distance(key, keys[match], integral) <= tolerance.doubleValue())) {
+                        bRows[r] = rows[match];
+                    }
                 }
-                return Collections.unmodifiableList(key);
+                return null;
             }
         });
+
+        // the row names of the left data frame are already unique
+        return combine(left.columns(), leftData, right.columns(), rightData, JoinType.LEFT,
+                new Matches(aRows, bRows), new ArrayList<>(left.index()), null);
     }
 
     public static <V> DataFrame<V> merge(final DataFrame<V> left, final DataFrame<V> right, final JoinType how) {
         final Set<Object> intersection = new LinkedHashSet<>(left.nonnumeric().columns());
         intersection.retainAll(right.nonnumeric().columns());
         final Object[] columns = intersection.toArray(new Object[intersection.size()]);
-        return join(left.reindex(columns), right.reindex(columns), how, null);
+        return left.reindex(columns).join(right.reindex(columns), how);
     }
 
     @SafeVarargs
@@ -138,36 +1113,48 @@ public class Combining {
         }
     }
 
-    @SafeVarargs
-    public static <V> DataFrame<V> concat(
-            final DataFrame<V> first, final DataFrame<? extends V> ... others) {
-        List<DataFrame<? extends V>> dfs = new ArrayList<>(others.length + 1);
-        dfs.add(first);
-        dfs.addAll(Arrays.asList(others));
-
-        int rows = 0;
-        Set<Object> columns = new LinkedHashSet<>();
-        for (DataFrame<? extends V> df : dfs) {
-            rows += df.length();
-            for (Object c : df.columns()) {
-                columns.add(c);
+    /**
+     * Concatenate the rows of the data frames with the specified columns
+     * and data.  The columns of the result refer to the blocks of each
+     * data frame instead of copying them, blocks are only copied once
+     * either data frame is modified.
+     */
+    public static <V> DataFrame<V> concat(final List<? extends Collection<Object>> columns,
+            final List<? extends BlockManager<? extends V>> data) {
+        final ObjectIntMap positions = new ObjectIntMap();
+        final int[][] targets = new int[columns.size()][];
+        final int[] lengths = new int[columns.size()];
+        for (int f = 0; f < columns.size(); f++) {
+            targets[f] = new int[columns.get(f).size()];
+            int c = 0;
+            for (final Object name : columns.get(f)) {
+                int position = positions.get(name, -1);
+                if (position < 0) {
+                    position = positions.size();
+                    positions.put(name, position);
+                }
+                targets[f][c++] = position;
             }
+            lengths[f] = data.get(f).length();
         }
 
-        List<Object> newcols = new ArrayList<>(columns);
-        DataFrame<V> combined = new DataFrame<V>(columns).reshape(rows, columns.size());
-        int offset = 0;
-        for (DataFrame<? extends V> df : dfs) {
-            List<Object> cols = new ArrayList<>(df.columns());
-            for (int c = 0; c < cols.size(); c++) {
-                int newc = newcols.indexOf(cols.get(c));
-                for (int r = 0; r < df.length(); r++) {
-                    combined.set(offset + r, newc, df.get(r, c));
-                }
+        // frames without a column contribute null chunks
+        final List<List<Block<? extends V>>> chunks = new ArrayList<>(positions.size());
+        for (int c = 0; c < positions.size(); c++) {
+            chunks.add(new ArrayList<>(Collections.<Block<? extends V>>nCopies(columns.size(), null)));
+        }
+        for (int f = 0; f < columns.size(); f++) {
+            for (int c = 0; c < targets[f].length; c++) {
+                chunks.get(targets[f][c]).set(f, data.get(f).block(c));
             }
-            offset += df.length();
         }
 
-        return combined;
+        final List<Object> names = new ArrayList<>(positions.size());
+        final List<Block<V>> blocks = new ArrayList<>(positions.size());
+        for (int c = 0; c < positions.size(); c++) {
+            names.add(positions.key(c));
+            blocks.add(Block.<V>concat(chunks.get(c), lengths));
+        }
+        return new DataFrame<>(Collections.emptyList(), names, blocks);
     }
 }
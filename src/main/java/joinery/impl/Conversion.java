@@ -37,7 +37,9 @@ import joinery.DataFrame.Function;
 import joinery.DataFrame.NumberDefault;
 
 public class Conversion {
-    
+    // one bit for each of the conversions tried on a column
+    private static final int ALL_CONVERSIONS = 0b1111;
+
     protected static int dummyVariableMaxLen = 8;
     
     public static int getDummyVariableMaxLen() {
@@ -62,49 +64,98 @@ public class Conversion {
 
     public static <V> void convert(final DataFrame<V> df, final NumberDefault numDefault, final String naString) {
         final Map<Integer, Function<V, ?>> conversions = new HashMap<>();
-        List<Function<V, ?>> converters;
+        final List<Function<V, ?>> converters = converters(numDefault);
         final int rows = df.length();
         final int cols = df.size();
 
+        NAConversion<V> naConverter = new NAConversion<>(naString);
+        // find conversions
+        for (int c = 0; c < cols; c++) {
+            for (final Function<V, ?> conv : converters) {
+                boolean all = true;
+                for (int r = 0; r < rows; r++) {
+                    if (conv.apply(df.get(r, c)) == null && naConverter.apply(df.get(r, c)) != null) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) {
+                    conversions.put(c, conv);
+                    break;
+                }
+            }
+        }
+
+        // apply conversions
+        convert(df, conversions, naString);
+    }
+
+    private static <V> List<Function<V, ?>> converters(final NumberDefault numDefault) {
         switch (numDefault) {
             case LONG_DEFAULT:
-                converters = Arrays.<Function<V, ?>>asList(
+                return Arrays.<Function<V, ?>>asList(
                     new LongConversion<V>(),
                     new DoubleConversion<V>(),
                     new BooleanConversion<V>(),
                     new DateTimeConversion<V>());
-                break;
             case DOUBLE_DEFAULT:
-                converters = Arrays.<Function<V, ?>>asList(
+                return Arrays.<Function<V, ?>>asList(
                     new DoubleConversion<V>(),
                     new LongConversion<V>(),
                     new BooleanConversion<V>(),
                     new DateTimeConversion<V>());
-                break;
             default:
                 throw new IllegalArgumentException("Number default contains an Illegal value");
         }
+    }
 
-        NAConversion<V> naConverter = new NAConversion<>(naString);
-        // find conversions
-        for (int c = 0; c < cols; c++) {
-            for (final Function<V, ?> conv : converters) {
-                boolean all = true;
-                for (int r = 0; r < rows; r++) {
+    /**
+     * Return the bits for each column of a data frame with all of
+     * the conversions possible, for use with {@link #narrow}.
+     */
+    public static int[] conversions(final int cols) {
+        final int[] masks = new int[cols];
+        Arrays.fill(masks, ALL_CONVERSIONS);
+        return masks;
+    }
+
+    /**
+     * Clear the bit of each conversion, in the order they are tried
+     * by {@link #convert(DataFrame, NumberDefault, String)}, that fails
+     * for a value of the column.  Narrowing the bits a batch of rows at
+     * a time finds the same conversions as looking at every row at once.
+     */
+    public static <V> void narrow(final DataFrame<V> df, final NumberDefault numDefault, final String naString, final int[] masks) {
+        final List<Function<V, ?>> converters = converters(numDefault);
+        final NAConversion<V> naConverter = new NAConversion<>(naString);
+        for (int c = 0; c < df.size(); c++) {
+            for (int k = 0; k < converters.size(); k++) {
+                if ((masks[c] & (1 << k)) == 0) {
+                    continue;
+                }
+                final Function<V, ?> conv = converters.get(k);
+                for (int r = 0; r < df.length(); r++) {
                     if (conv.apply(df.get(r, c)) == null && naConverter.apply(df.get(r, c)) != null) {
-                        all = false;
+                        masks[c] &= ~(1 << k);
                         break;
                     }
                 }
-                if (all) {
-                    conversions.put(c, conv);
-                    break;
-                }
             }
         }
+    }
 
-        // apply conversions
-        convert(df, conversions, naString);
+    /**
+     * Return the first conversion remaining for each column.
+     */
+    public static <V> Map<Integer, Function<V, ?>> conversions(final NumberDefault numDefault, final int[] masks) {
+        final Map<Integer, Function<V, ?>> conversions = new HashMap<>();
+        final List<Function<V, ?>> converters = converters(numDefault);
+        for (int c = 0; c < masks.length; c++) {
+            if (masks[c] != 0) {
+                conversions.put(c, converters.get(Integer.numberOfTrailingZeros(masks[c])));
+            }
+        }
+        return conversions;
     }
 
     @SafeVarargs
@@ -0,0 +1,521 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import joinery.DataFrame;
+import joinery.DataFrame.SortDirection;
+
+/**
+ * Sorts rows that may not fit in memory.
+ *
+ * Rows are buffered column-wise until their estimated size reaches
+ * the memory budget, then sorted and written to a temporary file as
+ * a run in a compact binary row format.  Once all rows are added the
+ * runs are merged, at most {@value #FAN_IN} at a time, into a single
+ * stream of rows in sorted order.  Rows with equal keys keep the
+ * order in which they were added.
+ *
+ * Csv files are sorted this way by {@link DataFrame#sortCsv}.
+ *
+ * <pre> {@code
+ * try (ExternalSorting<Object> sorter = new ExternalSorting<>(columns, cols, 512L << 20)) {
+ *     sorter.appendAll(rows);
+ *     for (List<Object> row : sorter) {
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ */
+public class ExternalSorting<V>
+implements Iterable<List<V>>, Closeable {
+    private static final int FAN_IN = 64;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte NULL = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte LONG = 2;
+    private static final byte INTEGER = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte DATE = 6;
+    private static final byte OBJECT = 7;
+
+    private final List<Object> columns;
+    private final Map<Integer, SortDirection> cols;
+    private final long memory;
+    private final File directory;
+    private final List<File> runs = new ArrayList<>();
+    private final List<Closeable> open = new ArrayList<>();
+    private BlockManager<V> buffer;
+    private long buffered = 0;
+    private boolean sorted = false;
+
+    public ExternalSorting(final Collection<?> columns, final Map<Integer, SortDirection> cols, final long memory) {
+        this(columns, cols, memory, null);
+    }
+
+    /**
+     * Create a sorter for rows with the specified columns.
+     *
+     * @param columns the column names
+     * @param cols the sort column indices and directions
+     * @param memory the approximate number of bytes of rows to buffer
+     * @param directory the directory for temporary files or {@code null}
+     *        to use the default temporary file directory
+     */
+    public ExternalSorting(final Collection<?> columns, final Map<Integer, SortDirection> cols,
+            final long memory, final File directory) {
+        if (memory <= 0) {
+            throw new IllegalArgumentException("invalid memory budget " + memory);
+        }
+        this.columns = new ArrayList<>(columns);
+        this.cols = cols;
+        this.memory = memory;
+        this.directory = directory;
+        this.buffer = empty();
+    }
+
+    private BlockManager<V> empty() {
+        final BlockManager<V> empty = new BlockManager<>();
+        empty.reshape(columns.size(), 0);
+        return empty;
+    }
+
+    public ExternalSorting<V> append(final List<? extends V> row)
+    throws IOException {
+        if (sorted) {
+            throw new IllegalStateException("rows can not be added after sorting");
+        }
+        if (row.size() > columns.size()) {
+            throw new IllegalArgumentException(
+                    "row has " + row.size() + " values, expected " + columns.size());
+        }
+
+        buffer.append(row);
+        buffered += estimate(row);
+        if (buffered >= memory) {
+            spill();
+        }
+        return this;
+    }
+
+    public ExternalSorting<V> appendAll(final Iterable<? extends List<? extends V>> rows)
+    throws IOException {
+        for (final List<? extends V> row : rows) {
+            append(row);
+        }
+        return this;
+    }
+
+    public int runs() {
+        return runs.size();
+    }
+
+    private static long estimate(final List<?> row) {
+        // list and reference overhead plus boxed values
+        long size = 16 + 8L * row.size();
+        for (final Object value : row) {
+            size += value instanceof String ? 40 + 2L * String.class.cast(value).length() : 16;
+        }
+        return size;
+    }
+
+    private void spill()
+    throws IOException {
+        final int[] order = Sorting.sort(buffer, cols);
+        final File file = File.createTempFile("joinery", ".run", directory);
+        runs.add(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(order.length);
+            for (final int r : order) {
+                for (int c = 0; c < columns.size(); c++) {
+                    write(out, buffer.get(c, r));
+                }
+            }
+        }
+        buffer = empty();
+        buffered = 0;
+    }
+
+    private static void write(final DataOutputStream out, final Object value)
+    throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(Double.class.cast(value));
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong(Long.class.cast(value));
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt(Integer.class.cast(value));
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(Boolean.class.cast(value));
+        } else if (value instanceof String) {
+            final byte[] bytes = String.class.cast(value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(Date.class.cast(value).getTime());
+        } else {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(OBJECT);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    private static Object read(final DataInputStream in)
+    throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case DOUBLE:
+                return in.readDouble();
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+            case OBJECT:
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (type == STRING) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return ois.readObject();
+                } catch (final ClassNotFoundException ex) {
+                    throw new IOException(ex);
+                }
+            case DATE:
+                return new Date(in.readLong());
+            default:
+                throw new IOException("invalid value type " + type);
+        }
+    }
+
+    private final class Run
+    implements Closeable {
+        private final int index;
+        private final DataInputStream in;
+        private int remaining;
+        private List<V> row = null;
+
+        private Run(final int index, final File file)
+        throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.remaining = in.readInt();
+        }
+
+        private boolean next()
+        throws IOException {
+            if (remaining == 0) {
+                row = null;
+                return false;
+            }
+
+            final List<V> values = new ArrayList<>(columns.size());
+            for (int c = 0; c < columns.size(); c++) {
+                @SuppressWarnings("unchecked")
+                final V value = (V)read(in);
+                values.add(value);
+            }
+            row = values;
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close()
+        throws IOException {
+            in.close();
+        }
+    }
+
+    private final class Merge
+    implements Iterator<List<V>> {
+        private final PriorityQueue<Run> queue;
+
+        private Merge(final List<File> files)
+        throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, files.size()), new Comparator<Run>() {
+                @Override
+                public int compare(final Run r1, final Run r2) {
+                    final int result = ExternalSorting.this.compare(r1.row, r2.row);
+                    return result != 0 ? result : Integer.compare(r1.index, r2.index);
+                }
+            });
+            for (int i = 0; i < files.size(); i++) {
+                final Run run = new Run(i, files.get(i));
+                open.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public List<V> next() {
+            final Run run = queue.poll();
+            if (run == null) {
+                throw new NoSuchElementException();
+            }
+
+            final List<V> row = run.row;
+            try {
+                if (run.next()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(final List<V> r1, final List<V> r2) {
+        for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
+            final int c = col.getKey();
+            final Comparable<V> v1 = Comparable.class.cast(r1.get(c));
+            int result = v1.compareTo(r2.get(c));
+            result *= col.getValue() == SortDirection.DESCENDING ? -1 : 1;
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merge consecutive runs until no more than {@value #FAN_IN} remain.
+     * Each run is deleted once it has been merged, and if merging fails
+     * the partially merged runs are deleted while the remaining runs are
+     * left for {@link #close()}.
+     */
+    private void reduce()
+    throws IOException {
+        while (runs.size() > FAN_IN) {
+            final List<File> merged = new ArrayList<>();
+            boolean complete = false;
+            try {
+                for (int i = 0; i < runs.size(); i += FAN_IN) {
+                    final List<File> files = runs.subList(i, Math.min(i + FAN_IN, runs.size()));
+                    final File file = File.createTempFile("joinery", ".run", directory);
+                    merged.add(file);
+                    merge(files, file);
+                    delete(files);
+                }
+                complete = true;
+            } finally {
+                if (!complete) {
+                    for (final File file : merged) {
+                        file.delete();
+                    }
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+    }
+
+    private void merge(final List<File> files, final File file)
+    throws IOException {
+        int count = 0;
+        for (final File run : files) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(run))) {
+                count += in.readInt();
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(count);
+            final Iterator<List<V>> rows = new Merge(files);
+            while (rows.hasNext()) {
+                for (final V value : rows.next()) {
+                    write(out, value);
+                }
+            }
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Return the rows in sorted order.  Rows are read from the
+     * temporary files as the iterator advances, which can only
+     * be done once.
+     */
+    @Override
+    public Iterator<List<V>> iterator() {
+        if (sorted) {
+            throw new IllegalStateException("rows have already been sorted");
+        }
+        sorted = true;
+
+        try {
+            if (runs.isEmpty()) {
+                final BlockManager<V> rows = buffer;
+                final int[] order = Sorting.sort(rows, cols);
+                buffer = empty();
+                return new Iterator<List<V>>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < order.length;
+                    }
+
+                    @Override
+                    public List<V> next() {
+                        if (i >= order.length) {
+                            throw new NoSuchElementException();
+                        }
+                        final List<V> row = new ArrayList<>(columns.size());
+                        for (int c = 0; c < columns.size(); c++) {
+                            row.add(rows.get(c, order[i]));
+                        }
+                        i++;
+                        return row;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            if (buffer.length() > 0) {
+                spill();
+            }
+            reduce();
+            return new Merge(runs);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Return a data frame of the rows in sorted order.
+     */
+    public DataFrame<V> build()
+    throws IOException {
+        try {
+            final DataFrame.Builder<V> builder = new DataFrame.Builder<>(columns);
+            for (final List<V> row : this) {
+                builder.append(row);
+            }
+            return builder.build();
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            close();
+        }
+    }
+
+    private static void delete(final List<File> files)
+    throws IOException {
+        // try every file before reporting a failure
+        File failed = null;
+        for (final File file : files) {
+            if (file.exists() && !file.delete()) {
+                failed = file;
+            }
+        }
+        if (failed != null) {
+            throw new IOException("unable to delete " + failed);
+        }
+    }
+
+    /**
+     * Close any open runs and remove the temporary files.
+     */
+    @Override
+    public void close()
+    throws IOException {
+        try {
+            for (final Closeable run : open) {
+                run.close();
+            }
+        } finally {
+            open.clear();
+            buffer = empty();
+            try {
+                delete(runs);
+            } finally {
+                runs.clear();
+            }
+        }
+    }
+}
@@ -18,70 +18,328 @@
 
 package joinery.impl;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import joinery.DataFrame;
 import joinery.DataFrame.Aggregate;
 import joinery.DataFrame.Function;
 import joinery.DataFrame.KeyFunction;
+import joinery.DataFrame.MergeableAggregate;
 import joinery.impl.Transforms.CumulativeFunction;
 
+/**
+ * Row groups of a data frame.
+ *
+ * Key columns are factorized into an integer group id per row,
+ * numbered in the order keys are first seen, along with a table of
+ * the distinct keys.  Key objects are only created once per group.
+ */
 public class Grouping
-implements Iterable<Map.Entry<Object, SparseBitSet>> {
+implements Iterable<Map.Entry<Object, int[]>> {
 
-    private final Map<Object, SparseBitSet> groups = new LinkedHashMap<>();
     private final Set<Integer> columns = new LinkedHashSet<>();
+    private final List<Object> keys = new ArrayList<>();
+    private int[] ids = new int[0];
+    private int[] counts = new int[0];
+    private int[] firsts = new int[0];
+    // rows sorted by group and the offset of each group, on demand
+    private int[] order = null;
+    private int[] offsets = null;
 
     public Grouping() { }
 
     public <V> Grouping(final DataFrame<V> df, final KeyFunction<V> function, final Integer ... columns) {
+        final ObjectIntMap table = new ObjectIntMap();
+        ids = new int[df.length()];
         final Iterator<List<V>> iter = df.iterator();
         for (int r = 0; iter.hasNext(); r++) {
-            final List<V> row = iter.next();
-            final Object key = function.apply(row);
-            SparseBitSet group = groups.get(key);
-            if (group == null) {
-                group = new SparseBitSet();
-                groups.put(key, group);
+            final Object key = function.apply(iter.next());
+            int id = table.get(key, -1);
+            if (id < 0) {
+                id = table.size();
+                table.put(key, id);
             }
-            group.set(r);
+            ids[r] = id;
         }
 
+        for (int e = 0; e < table.size(); e++) {
+            keys.add(table.key(e));
+        }
+        count(keys.size());
+
         for (final int column : columns) {
             this.columns.add(column);
         }
     }
 
-    public <V> Grouping(final DataFrame<V> df, final Integer ... columns) {
-        this(
-            df,
-            columns.length == 1 ?
-                new KeyFunction<V>() {
-                    @Override
-                    public Object apply(final List<V> value) {
-                        return value.get(columns[0]);
-                    }
+    public <V> Grouping(final BlockManager<V> data, final Integer ... columns) {
+        final int len = data.length();
+        ids = new int[len];
+        int groups = len > 0 ? 1 : 0;
+
+        for (int k = 0; k < columns.length; k++) {
+            final Block<V> block = data.block(columns[k]);
+            final int[] codes = new int[len];
+            final int n = factorize(
+                    block.type() == Object.class ?
+                        new ObjectCodes(block) :
+                        new PrimitiveCodes(block),
+                    codes
+                );
+            if (k == 0) {
+                ids = codes;
+                groups = n;
+            } else {
+                // combine the codes of this column with the
+                // groups so far, renumbering in order of appearance
+                final int[] combined = new int[len];
+                groups = factorize(new PairCodes(ids, codes), combined);
+                ids = combined;
+            }
+        }
+
+        count(groups);
+        for (int g = 0; g < groups; g++) {
+            if (columns.length == 1) {
+                keys.add(data.get(columns[0], firsts[g]));
+            } else {
+                final List<Object> key = new ArrayList<>(columns.length);
+                for (final int column : columns) {
+                    key.add(data.get(column, firsts[g]));
+                }
+                keys.add(Collections.unmodifiableList(key));
+            }
+        }
+
+        for (final int column : columns) {
+            this.columns.add(column);
+        }
+    }
 
-                } :
-                new KeyFunction<V>() {
-                    @Override
-                    public Object apply(final List<V> value) {
-                        final List<Object> key = new ArrayList<>(columns.length);
-                        for (final int column : columns) {
-                            key.add(value.get(column));
+    /**
+     * Assigns codes to the key of each row in order of first appearance.
+     */
+    private static abstract class Codes {
+        protected int size = 0;
+
+        protected abstract int code(int row);
+
+        protected abstract Codes create();
+    }
+
+    private static final class ObjectCodes
+    extends Codes {
+        private final Block<?> block;
+        private final ObjectIntMap table = new ObjectIntMap();
+
+        private ObjectCodes(final Block<?> block) {
+            this.block = block;
+        }
+
+        @Override
+        protected int code(final int row) {
+            final Object value = block.get(row);
+            int code = table.get(value, -1);
+            if (code < 0) {
+                code = size++;
+                table.put(value, code);
+            }
+            return code;
+        }
+
+        @Override
+        protected Codes create() {
+            return new ObjectCodes(block);
+        }
+    }
+
+    private static final class PrimitiveCodes
+    extends Codes {
+        private final Block<?> block;
+        private final LongIntMap table = new LongIntMap();
+        private int missing = -1;
+
+        private PrimitiveCodes(final Block<?> block) {
+            this.block = block;
+        }
+
+        @Override
+        protected int code(final int row) {
+            if (block.isNull(row)) {
+                if (missing < 0) {
+                    missing = size++;
+                }
+                return missing;
+            }
+
+            final long value = block.bits(row);
+            int code = table.get(value, -1);
+            if (code < 0) {
+                code = size++;
+                table.put(value, code);
+            }
+            return code;
+        }
+
+        @Override
+        protected Codes create() {
+            return new PrimitiveCodes(block);
+        }
+    }
+
+    private static final class PairCodes
+    extends Codes {
+        private final int[] first;
+        private final int[] second;
+        private final LongIntMap table = new LongIntMap();
+
+        private PairCodes(final int[] first, final int[] second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected int code(final int row) {
+            final long pair = (long)first[row] << 32 | second[row];
+            int code = table.get(pair, -1);
+            if (code < 0) {
+                code = size++;
+                table.put(pair, code);
+            }
+            return code;
+        }
+
+        @Override
+        protected Codes create() {
+            return new PairCodes(first, second);
+        }
+    }
+
+    private static int factorize(final Codes table, final int[] codes) {
+        final int[] bounds = Parallel.partition(codes.length);
+        if (bounds.length == 2) {
+            for (int r = 0; r < codes.length; r++) {
+                codes[r] = table.code(r);
+            }
+            return table.size;
+        }
+
+        // code each range separately recording the first row of
+        // each local code, then renumber the local codes range by
+        // range which preserves the order of first appearance
+        final List<int[]> firsts = Parallel.apply(bounds, new Parallel.RangeFunction<int[]>() {
+            @Override
+            public int[] apply(final int start, final int end) {
+                final Codes local = table.create();
+                int[] first = new int[16];
+                int seen = 0;
+                for (int r = start; r < end; r++) {
+                    codes[r] = local.code(r);
+                    if (local.size > seen) {
+                        if (seen == first.length) {
+                            first = Arrays.copyOf(first, seen * 2);
                         }
-                        return Collections.unmodifiableList(key);
+                        first[seen++] = r;
                     }
-            },
-            columns
-        );
+                }
+                return Arrays.copyOf(first, seen);
+            }
+        });
+
+        final List<int[]> renumbered = new ArrayList<>(firsts.size());
+        for (final int[] first : firsts) {
+            final int[] global = new int[first.length];
+            for (int code = 0; code < first.length; code++) {
+                global[code] = table.code(first[code]);
+            }
+            renumbered.add(global);
+        }
+
+        Parallel.apply(bounds, new Parallel.RangeFunction<Void>() {
+            @Override
+            public Void apply(final int start, final int end) {
+                final int[] global = renumbered.get(Arrays.binarySearch(bounds, start));
+                for (int r = start; r < end; r++) {
+                    codes[r] = global[codes[r]];
+                }
+                return null;
+            }
+        });
+        return table.size;
+    }
+
+    private void count(final int groups) {
+        counts = new int[groups];
+        firsts = new int[groups];
+        for (int r = ids.length - 1; r >= 0; r--) {
+            counts[ids[r]]++;
+            firsts[ids[r]] = r;
+        }
+    }
+
+    private void sort() {
+        if (order == null) {
+            final int[] offsets = new int[counts.length + 1];
+            for (int g = 0; g < counts.length; g++) {
+                offsets[g + 1] = offsets[g] + counts[g];
+            }
+
+            final int[] next = Arrays.copyOf(offsets, counts.length);
+            final int[] order = new int[ids.length];
+            for (int r = 0; r < ids.length; r++) {
+                order[next[ids[r]]++] = r;
+            }
+
+            this.offsets = offsets;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Split the groups into ranges with about the same
+     * number of rows for parallel processing.
+     */
+    private int[] partition() {
+        final int[] rows = Parallel.partition(ids.length);
+        if (rows.length == 2 || counts.length < 2) {
+            return new int[] { 0, counts.length };
+        }
+
+        sort();
+        final int[] bounds = new int[rows.length];
+        int parts = 0;
+        for (int p = 1; p < rows.length; p++) {
+            int g = Arrays.binarySearch(offsets, rows[p]);
+            g = g < 0 ? -(g + 1) : g;
+            if (g > bounds[parts]) {
+                bounds[++parts] = g;
+            }
+        }
+        return Arrays.copyOf(bounds, parts + 1);
+    }
+
+    private <V> Object[][] scatter(final DataFrame<V> df, final int c) {
+        final Object[][] values = new Object[counts.length][];
+        for (int g = 0; g < counts.length; g++) {
+            values[g] = new Object[counts[g]];
+        }
+
+        final int[] next = new int[counts.length];
+        for (int r = 0; r < ids.length; r++) {
+            final int g = ids[r];
+            values[g][next[g]++] = df.get(r, c);
+        }
+        return values;
     }
 
     @SuppressWarnings("unchecked")
@@ -94,22 +352,19 @@ implements Iterable<Map.Entry<Object, SparseBitSet>> {
         final List<Object> names = new ArrayList<>(df.columns());
         final List<Object> newcols = new ArrayList<>();
         final List<Object> index = new ArrayList<>();
+        final int groups = keys.size();
 
         // construct new row index
-        if (function instanceof Aggregate && !groups.isEmpty()) {
-            for (final Object key : groups.keySet()) {
-                index.add(key);
-            }
+        if (function instanceof Aggregate && groups > 0) {
+            index.addAll(keys);
         }
 
         // add key columns
         for (final int c : columns) {
-            if (function instanceof Aggregate && !groups.isEmpty()) {
-                final List<V> column = new ArrayList<>();
-                for (final Map.Entry<Object, SparseBitSet> entry : groups.entrySet()) {
-                    final SparseBitSet rows = entry.getValue();
-                    final int r = rows.nextSetBit(0);
-                    column.add(df.get(r, c));
+            if (function instanceof Aggregate && groups > 0) {
+                final List<V> column = new ArrayList<>(groups);
+                for (int g = 0; g < groups; g++) {
+                    column.add(df.get(firsts[g], c));
                 }
                 grouped.add(column);
                 newcols.add(names.get(c));
@@ -123,7 +378,7 @@ implements Iterable<Map.Entry<Object, SparseBitSet>> {
         for (int c = 0; c < df.size(); c++) {
             if (!columns.contains(c)) {
                 final List<V> column = new ArrayList<>();
-                if (groups.isEmpty()) {
+                if (groups == 0) {
                     try {
                         if (function instanceof Aggregate) {
                             column.add((V)Aggregate.class.cast(function).apply(df.col(c)));
@@ -137,20 +392,29 @@ implements Iterable<Map.Entry<Object, SparseBitSet>> {
                     if (function instanceof CumulativeFunction) {
                         CumulativeFunction.class.cast(function).reset();
                     }
+                } else if (function instanceof MergeableAggregate) {
+                    try {
+                        column.addAll(accumulate(df, c,
+                                Collections.singletonList(MergeableAggregate.class.cast(function))).get(0));
+                    } catch (final ClassCastException ignored) { }
+                } else if (function instanceof Aggregate) {
+                    final Object[][] values = scatter(df, c);
+                    for (int g = 0; g < groups; g++) {
+                        try {
+                            column.add((V)Aggregate.class.cast(function).apply(Arrays.asList(values[g])));
+                        } catch (final ClassCastException ignored) { }
+                        values[g] = null;
+
+                        if (function instanceof CumulativeFunction) {
+                            CumulativeFunction.class.cast(function).reset();
+                        }
+                    }
                 } else {
-                    for (final Map.Entry<Object, SparseBitSet> entry : groups.entrySet()) {
-                        final SparseBitSet rows = entry.getValue();
+                    sort();
+                    for (int g = 0; g < groups; g++) {
                         try {
-                            if (function instanceof Aggregate) {
-                                final List<V> values = new ArrayList<>(rows.cardinality());
-                                for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1)) {
-                                    values.add(df.get(r, c));
-                                }
-                                column.add((V)Aggregate.class.cast(function).apply(values));
-                            } else {
-                                for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1)) {
-                                    column.add((V)Function.class.cast(function).apply(df.get(r, c)));
-                                }
+                            for (int i = offsets[g]; i < offsets[g + 1]; i++) {
+                                column.add((V)Function.class.cast(function).apply(df.get(order[i], c)));
                             }
                         } catch (final ClassCastException ignored) { }
 
@@ -177,8 +441,156 @@ implements Iterable<Map.Entry<Object, SparseBitSet>> {
         return new DataFrame<>(index, newcols, grouped);
     }
 
+    /**
+     * Apply several aggregate functions per column, scanning each
+     * column once for all of its functions.  Result columns are named
+     * by lists of the column name and the function name.
+     */
+    public <V> DataFrame<V> aggregate(final DataFrame<V> df, final Map<Integer, ? extends List<? extends Aggregate<V, ?>>> aggregates) {
+        final List<List<V>> grouped = new ArrayList<>();
+        final List<Object> names = new ArrayList<>(df.columns());
+        final Set<Object> newcols = new LinkedHashSet<>();
+        final List<Object> index = new ArrayList<>();
+        final int groups = keys.size();
+
+        if (groups > 0) {
+            index.addAll(keys);
+            for (final int c : columns) {
+                final List<V> column = new ArrayList<>(groups);
+                for (int g = 0; g < groups; g++) {
+                    column.add(df.get(firsts[g], c));
+                }
+                grouped.add(column);
+                newcols.add(names.get(c));
+            }
+        }
+
+        for (final Map.Entry<Integer, ? extends List<? extends Aggregate<V, ?>>> entry : aggregates.entrySet()) {
+            final int c = entry.getKey();
+            final List<MergeableAggregate<?, ?, ?>> mergeable = new ArrayList<>();
+            boolean scatter = groups == 0;
+            for (final Aggregate<V, ?> function : entry.getValue()) {
+                if (function instanceof MergeableAggregate) {
+                    mergeable.add(MergeableAggregate.class.cast(function));
+                } else {
+                    scatter = true;
+                }
+            }
+
+            // accumulate mergeable functions in one scan
+            final Iterator<List<V>> accumulated = groups > 0 ?
+                    accumulate(df, c, mergeable).iterator() :
+                    Collections.<List<V>>emptyIterator();
+
+            // and only collect group values for the rest
+            final List<List<V>> values = new ArrayList<>(Math.max(groups, 1));
+            if (scatter && groups > 0) {
+                for (final Object[] group : scatter(df, c)) {
+                    @SuppressWarnings("unchecked")
+                    final List<V> list = (List<V>)Arrays.asList(group);
+                    values.add(list);
+                }
+            } else if (scatter) {
+                values.add(new ArrayList<>(df.col(c)));
+            }
+
+            for (final Aggregate<V, ?> function : entry.getValue()) {
+                if (function instanceof MergeableAggregate && groups > 0) {
+                    grouped.add(accumulated.next());
+                } else {
+                    final List<V> column = new ArrayList<>(values.size());
+                    for (final List<V> group : values) {
+                        @SuppressWarnings("unchecked")
+                        final V value = (V)function.apply(group);
+                        column.add(value);
+                        if (function instanceof CumulativeFunction) {
+                            CumulativeFunction.class.cast(function).reset();
+                        }
+                    }
+                    grouped.add(column);
+                }
+                newcols.add(name(newcols, names.get(c), function));
+            }
+        }
+
+        return new DataFrame<>(index, newcols, grouped);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> List<List<V>> accumulate(final DataFrame<V> df, final int c, final List<MergeableAggregate<?, ?, ?>> functions) {
+        final int groups = keys.size();
+        final int count = functions.size();
+        final List<MergeableAggregate<V, V, Object>> aggregates = new ArrayList<>(count);
+        final Object[][] states = new Object[count][groups];
+        for (int f = 0; f < count; f++) {
+            aggregates.add(MergeableAggregate.class.cast(functions.get(f)));
+            for (int g = 0; g < groups; g++) {
+                states[f][g] = aggregates.get(f).create();
+            }
+        }
+
+        final int[] bounds = partition();
+        if (bounds.length > 2) {
+            // each task owns a range of groups and adds the values
+            // of every group in row order, exactly as the serial scan
+            Parallel.apply(bounds, new Parallel.RangeFunction<Void>() {
+                @Override
+                public Void apply(final int start, final int end) {
+                    for (int g = start; g < end; g++) {
+                        for (int i = offsets[g]; i < offsets[g + 1]; i++) {
+                            final V value = df.get(order[i], c);
+                            for (int f = 0; f < count; f++) {
+                                aggregates.get(f).add(states[f][g], value);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        } else {
+            for (int r = 0; r < ids.length; r++) {
+                final V value = df.get(r, c);
+                for (int f = 0; f < count; f++) {
+                    aggregates.get(f).add(states[f][ids[r]], value);
+                }
+            }
+        }
+
+        final List<List<V>> results = new ArrayList<>(count);
+        for (int f = 0; f < count; f++) {
+            final List<V> column = new ArrayList<>(groups);
+            for (int g = 0; g < groups; g++) {
+                column.add(aggregates.get(f).finish(states[f][g]));
+            }
+            results.add(column);
+        }
+        return results;
+    }
+
+    private static Object name(final Set<Object> names, final Object column, final Function<?, ?> function) {
+        String name = function.getClass().getSimpleName().toLowerCase();
+        if (name.isEmpty()) {
+            name = function.getClass().getName();
+        }
+        Object key = Arrays.asList(column, name);
+        for (int i = 1; names.contains(key); i++) {
+            key = Arrays.asList(column, name + "_" + i);
+        }
+        return key;
+    }
+
     public Set<Object> keys() {
-        return groups.keySet();
+        return new AbstractSet<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                return Collections.unmodifiableList(keys).iterator();
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
     }
 
     public Set<Integer> columns() {
@@ -186,7 +598,30 @@ implements Iterable<Map.Entry<Object, SparseBitSet>> {
     }
 
     @Override
-    public Iterator<Map.Entry<Object, SparseBitSet>> iterator() {
-        return groups.entrySet().iterator();
+    public Iterator<Map.Entry<Object, int[]>> iterator() {
+        sort();
+        return new Iterator<Map.Entry<Object, int[]>>() {
+            private int group = 0;
+
+            @Override
+            public boolean hasNext() {
+                return group < keys.size();
+            }
+
+            @Override
+            public Map.Entry<Object, int[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                // rows are in order within each group
+                final int[] rows = Arrays.copyOfRange(order, offsets[group], offsets[group + 1]);
+                return new SimpleImmutableEntry<>(keys.get(group++), rows);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
@@ -18,22 +18,30 @@
 
 package joinery.impl;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import joinery.DataFrame;
-import joinery.DataFrame.RowFunction;
 
 
 public class Index {
-    private final Map<Object, Integer> index;
+    // while all names are consecutive integers matching their
+    // positions (offset by start) no map is created at all, if
+    // they are distinct integers selected from such a range they
+    // are kept as an array of labels and the inverse positions
+    private ObjectIntMap index = null;
+    private int[] labels = null;
+    private int[] positions = null;
+    private int start = 0;
+    private int length = 0;
 
     public Index() {
         this(Collections.<Object>emptyList());
@@ -44,56 +52,221 @@ public class Index {
     }
 
     public Index(final Collection<?> names, final int size) {
-        index = new LinkedHashMap<>(names.size());
+        int i = 0;
+        if (names instanceof Names) {
+            final Index other = Names.class.cast(names).index();
+            if (other.index == null) {
+                start = other.start;
+                labels = other.labels;
+                positions = other.positions;
+                length = i = Math.min(size, other.length);
+            }
+        }
+
         final Iterator<?> it = names.iterator();
-        for (int i = 0; i < size; i++) {
+        for (int skip = 0; skip < i; skip++) {
+            it.next();
+        }
+        for ( ; i < size; i++) {
             final Object name = it.hasNext() ? it.next() : i;
             add(name, i);
         }
     }
 
+    private void materialize() {
+        if (index == null) {
+            index = new ObjectIntMap(length);
+            for (int i = 0; i < length; i++) {
+                index.put(start + (labels != null ? labels[i] : i), i);
+            }
+            labels = null;
+            positions = null;
+        }
+    }
+
     public void add(final Object name, final Integer value) {
-        if (index.put(name, value) != null) {
+        if (index == null && labels == null && name instanceof Integer && value == length) {
+            final int n = Integer.class.cast(name);
+            if (length == 0) {
+                start = n;
+            }
+            if (n == start + length) {
+                length++;
+                return;
+            }
+        }
+
+        materialize();
+        if (index.put(name, value) >= 0) {
             throw new IllegalArgumentException("duplicate name '" + name +  "' in index");
         }
     }
 
     public void extend(final Integer size) {
-        for (int i = index.size(); i < size; i++) {
+        for (int i = index != null ? index.size() : length; i < size; i++) {
             add(i, i);
         }
     }
 
     public void set(final Object name, final Integer value) {
+        materialize();
         index.put(name, value);
     }
 
     public Integer get(final Object name) {
-        final Integer i = index.get(name);
-        if (i == null) {
+        return position(name);
+    }
+
+    public int position(final Object name) {
+        int i = index != null ? index.get(name, -1) :
+                name instanceof Integer ? Integer.class.cast(name) - start : -1;
+        if (labels != null) {
+            i = 0 <= i && i < positions.length ? positions[i] : -1;
+        }
+        if (i < 0 || index == null && i >= length) {
             throw new IllegalArgumentException("name '" + name + "' not in index");
         }
         return i;
     }
 
+    public Object name(final int position) {
+        if (index == null) {
+            if (position < 0 || position >= length) {
+                throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + length);
+            }
+            return start + (labels != null ? labels[position] : position);
+        }
+        // positions always match insertion order
+        return index.key(position);
+    }
+
     public void rename(final Map<Object, Object> names) {
-        final Map<Object, Integer> idx = new LinkedHashMap<>();
-        for (final Map.Entry<Object, Integer> entry : index.entrySet()) {
-            final Object col = entry.getKey();
+        materialize();
+        final ObjectIntMap idx = new ObjectIntMap(index.size());
+        for (int e = 0; e < index.size(); e++) {
+            final Object col = index.key(e);
             if (names.keySet().contains(col)) {
-                idx.put(names.get(col), entry.getValue());
+                idx.put(names.get(col), index.value(e));
             } else {
-                idx.put(col, entry.getValue());
+                idx.put(col, index.value(e));
             }
         }
-
-        // clear and add all names back to preserve insertion order
-        index.clear();
-        index.putAll(idx);
+        index = idx;
     }
 
     public Set<Object> names() {
-        return index.keySet();
+        return new Names();
+    }
+
+    private final class Names
+    extends AbstractSet<Object> {
+        private Index index() {
+            return Index.this;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private final int size = size();
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Object next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return name(next++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(final Object name) {
+            if (index != null) {
+                return index.containsKey(name);
+            }
+            if (name instanceof Integer) {
+                final int i = Integer.class.cast(name) - start;
+                if (labels != null) {
+                    return 0 <= i && i < positions.length &&
+                           0 <= positions[i] && positions[i] < length;
+                }
+                return 0 <= i && i < length;
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return index != null ? index.size() : length;
+        }
+    }
+
+    /**
+     * Return a new index with the names at the specified positions.
+     */
+    public Index select(final int[] rows) {
+        if (index == null && labels == null && rows.length > 0) {
+            int min = rows[0], max = rows[0];
+            boolean contiguous = true;
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] < 0 || rows[i] >= length) {
+                    throw new IndexOutOfBoundsException("Index: " + rows[i] + ", Size: " + length);
+                }
+                contiguous &= rows[i] == rows[0] + i;
+                min = Math.min(min, rows[i]);
+                max = Math.max(max, rows[i]);
+            }
+
+            final Index selected = new Index();
+            if (contiguous) {
+                // slices of a range are still a range
+                selected.start = start + rows[0];
+                selected.length = rows.length;
+                return selected;
+            }
+
+            // inverse positions span the selected rows, only worth it for dense selections
+            final int span = max - min + 1;
+            if (rows.length >= span >> 3) {
+                final int[] inverse = new int[span];
+                final int[] selectedLabels = new int[rows.length];
+                Arrays.fill(inverse, -1);
+                for (int i = 0; i < rows.length; i++) {
+                    final int label = rows[i] - min;
+                    if (inverse[label] >= 0) {
+                        // duplicates can not be represented
+                        return selectNames(rows);
+                    }
+                    inverse[label] = i;
+                    selectedLabels[i] = label;
+                }
+                selected.start = start + min;
+                selected.length = rows.length;
+                selected.labels = selectedLabels;
+                selected.positions = inverse;
+                return selected;
+            }
+        }
+        return selectNames(rows);
+    }
+
+    private Index selectNames(final int[] rows) {
+        final Index selected = new Index();
+        for (int i = 0; i < rows.length; i++) {
+            selected.add(name(rows[i]), i);
+        }
+        return selected;
     }
 
     public Integer[] indices(final Object[] names) {
@@ -109,48 +282,44 @@ public class Index {
         return indices;
     }
 
+    public int[] positions(final Object[] names) {
+        return positions(Arrays.asList(names));
+    }
+
+    public int[] positions(final List<Object> names) {
+        final int size = names.size();
+        final int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = position(names.get(i));
+        }
+        return positions;
+    }
+
     public static <V> DataFrame<V> reindex(final DataFrame<V> df, final Integer ... cols) {
+        final int len = df.length();
+        final List<Object> names = new ArrayList<>(len);
+        for (int r = 0; r < len; r++) {
+            if (cols.length == 1) {
+                names.add(df.get(r, cols[0]));
+            } else {
+                final List<Object> key = new ArrayList<>(cols.length);
+                for (final int c : cols) {
+                    key.add(df.get(r, c));
+                }
+                names.add(Collections.unmodifiableList(key));
+            }
+        }
+
         return new DataFrame<V>(
-                df.transform(
-                    cols.length == 1 ?
-                        new RowFunction<V, Object>() {
-                            @Override
-                            public List<List<Object>> apply(final List<V> values) {
-                                return Collections.<List<Object>>singletonList(
-                                    Collections.<Object>singletonList(
-                                        values.get(cols[0])
-                                    )
-                                );
-                            }
-                        } :
-                        new RowFunction<V, Object>() {
-                            @Override
-                            public List<List<Object>> apply(final List<V> values) {
-                                final List<Object> key = new ArrayList<>(cols.length);
-                                for (final int c : cols) {
-                                    key.add(values.get(c));
-                                }
-                                return Collections.<List<Object>>singletonList(
-                                    Collections.<Object>singletonList(
-                                        Collections.unmodifiableList(key)
-                                    )
-                                );
-                            }
-                        }
-                ).col(0),
+                names,
                 df.columns(),
                 new Views.ListView<V>(df, false)
             );
     }
 
     public static <V> DataFrame<V> reset(final DataFrame<V> df) {
-        final List<Object> index = new ArrayList<>(df.length());
-        for (int i = 0; i < df.length(); i++) {
-            index.add(i);
-        }
-
         return new DataFrame<V>(
-                index,
+                Collections.emptyList(),
                 df.columns(),
                 new Views.ListView<V>(df, false)
             );
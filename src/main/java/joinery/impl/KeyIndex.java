@@ -0,0 +1,231 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import joinery.DataFrame;
+import joinery.DataFrame.JoinType;
+
+/**
+ * An index of the rows of a data frame by the values of its key
+ * columns, built once and then used to join any number of other
+ * data frames without hashing the indexed rows again.
+ *
+ * The indexed rows are copied when the index is created and are
+ * never modified, so an index can be shared between threads and
+ * is not affected by later changes to the original data frame.
+ *
+ * Users get these through {@link DataFrame.JoinIndex}.
+ */
+public final class KeyIndex<V> {
+    private final List<Object> columns;
+    private final List<Object> keys;
+    private final BlockManager<V> data;
+    private final Integer[] cols;
+    private final Combining.KeyTable table;
+    // the rows of each distinct key, consecutive and in row order
+    private final int[] offsets;
+    private final int[] rows;
+
+    public KeyIndex(final Collection<Object> columns, final BlockManager<V> data, final Integer ... cols) {
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        final List<Object> keys = new ArrayList<>(cols.length);
+        for (final int c : cols) {
+            keys.add(this.columns.get(c));
+        }
+        this.keys = Collections.unmodifiableList(keys);
+        this.cols = cols.clone();
+
+        this.data = new BlockManager<>();
+        for (int c = 0; c < data.size(); c++) {
+            this.data.add(data.block(c).copy());
+        }
+
+        table = new Combining.KeyTable(new Combining.ColumnKeys(this.data, this.cols, this.data, this.cols));
+        final int[] codes = table.codes;
+        int count = 0;
+        for (final int code : codes) {
+            count = Math.max(count, code + 1);
+        }
+        offsets = new int[count + 1];
+        for (final int code : codes) {
+            offsets[code + 1]++;
+        }
+        for (int k = 0; k < count; k++) {
+            offsets[k + 1] += offsets[k];
+        }
+        rows = new int[codes.length];
+        final int[] next = Arrays.copyOf(offsets, count);
+        for (int r = 0; r < codes.length; r++) {
+            rows[next[codes[r]]++] = r;
+        }
+    }
+
+    /**
+     * Return the column names of the indexed data frame.
+     */
+    public List<Object> columns() {
+        return columns;
+    }
+
+    /**
+     * Return the names of the key columns.
+     */
+    public List<Object> keys() {
+        return keys;
+    }
+
+    public int length() {
+        return data.length();
+    }
+
+    /**
+     * Join the specified data with the indexed rows, producing the same
+     * result as joining with the indexed data frame on the key columns.
+     * Only the probe rows are hashed, so the cost of each join depends
+     * on the size of the probe and the result.
+     */
+    public Combining.Joined<V> join(final Collection<Object> probeColumns, final BlockManager<V> probeData,
+            final Integer[] probeCols, final JoinType how) {
+        if (probeCols.length != cols.length) {
+            throw new IllegalArgumentException("join requires " + cols.length + " key columns");
+        }
+
+        final Combining.Keys probe = new Combining.ColumnKeys(probeData, probeCols, data, cols);
+        final int[] hashes = Combining.hashes(probe);
+        final int len = hashes.length;
+        final int[] found = new int[len];
+        Parallel.apply(Parallel.partition(len), new Parallel.RangeFunction<Void>() {
+            @Override
+            public Void apply(final int start, final int end) {
+                for (int r = start; r < end; r++) {
+                    found[r] = table.find(probe, r, hashes[r]);
+                }
+                return null;
+            }
+        });
+
+        final Combining.Matches matches = how != JoinType.RIGHT ?
+                probe(found, how) : scan(found);
+        final BlockManager<V> aData = how != JoinType.RIGHT ? probeData : data;
+        final BlockManager<V> bData = how != JoinType.RIGHT ? data : probeData;
+        final Integer[] aCols = how != JoinType.RIGHT ? probeCols : cols;
+        final Integer[] bCols = how != JoinType.RIGHT ? cols : probeCols;
+        final Combining.Keys indexed = new Combining.ColumnKeys(data, cols, probeData, probeCols);
+        return Combining.combine(probeColumns, probeData, columns, data, how, matches,
+                Combining.names(aData, aCols, bData, bCols, matches),
+                new Combining.GatheredKeys(how != JoinType.RIGHT ? probe : indexed,
+                        how != JoinType.RIGHT ? indexed : probe, matches));
+    }
+
+    /**
+     * Match each probe row, in order, with the indexed rows of its key.
+     */
+    private Combining.Matches probe(final int[] found, final JoinType how) {
+        final boolean outer = how != JoinType.INNER;
+        final boolean[] matched = new boolean[offsets.length - 1];
+        int len = 0;
+        for (final int code : found) {
+            final int count = code < 0 ? 0 : offsets[code + 1] - offsets[code];
+            len += count > 0 ? count : outer ? 1 : 0;
+            if (code >= 0) {
+                matched[code] = true;
+            }
+        }
+        if (how == JoinType.OUTER) {
+            for (final int code : table.codes) {
+                len += matched[code] ? 0 : 1;
+            }
+        }
+
+        final int[] aRows = new int[len];
+        final int[] bRows = new int[len];
+        int i = 0;
+        for (int r = 0; r < found.length; r++) {
+            final int code = found[r];
+            if (code >= 0 && offsets[code + 1] > offsets[code]) {
+                for (int m = offsets[code]; m < offsets[code + 1]; m++, i++) {
+                    aRows[i] = r;
+                    bRows[i] = rows[m];
+                }
+            } else if (outer) {
+                aRows[i] = r;
+                bRows[i++] = -1;
+            }
+        }
+        if (how == JoinType.OUTER) {
+            for (int r = 0; r < table.codes.length; r++) {
+                if (!matched[table.codes[r]]) {
+                    aRows[i] = -1;
+                    bRows[i++] = r;
+                }
+            }
+        }
+        return new Combining.Matches(aRows, bRows);
+    }
+
+    /**
+     * Match each indexed row, in order, with the probe rows of its key.
+     */
+    private Combining.Matches scan(final int[] found) {
+        final int keys = offsets.length - 1;
+        final int[] probeOffsets = new int[keys + 1];
+        for (final int code : found) {
+            if (code >= 0) {
+                probeOffsets[code + 1]++;
+            }
+        }
+        for (int k = 0; k < keys; k++) {
+            probeOffsets[k + 1] += probeOffsets[k];
+        }
+        final int[] probeRows = new int[probeOffsets[keys]];
+        final int[] next = Arrays.copyOf(probeOffsets, keys);
+        for (int r = 0; r < found.length; r++) {
+            if (found[r] >= 0) {
+                probeRows[next[found[r]]++] = r;
+            }
+        }
+
+        int len = 0;
+        for (final int code : table.codes) {
+            len += Math.max(1, probeOffsets[code + 1] - probeOffsets[code]);
+        }
+        final int[] aRows = new int[len];
+        final int[] bRows = new int[len];
+        int i = 0;
+        for (int r = 0; r < table.codes.length; r++) {
+            final int code = table.codes[r];
+            if (probeOffsets[code + 1] > probeOffsets[code]) {
+                for (int m = probeOffsets[code]; m < probeOffsets[code + 1]; m++, i++) {
+                    aRows[i] = r;
+                    bRows[i] = probeRows[m];
+                }
+            } else {
+                aRows[i] = r;
+                bRows[i++] = -1;
+            }
+        }
+        return new Combining.Matches(aRows, bRows);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+/**
+ * An open addressing map of primitive longs to primitive integers
+ * using linear probing, used to combine factorized codes.
+ */
+public class LongIntMap {
+    private static final int MIN_SLOTS = 16;
+
+    private long[] keys;
+    // value + 1 for each slot, zero for empty slots
+    private int[] values;
+    private int size = 0;
+
+    public LongIntMap() {
+        this(MIN_SLOTS);
+    }
+
+    public LongIntMap(final int capacity) {
+        final int slots = Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(1, capacity) - 1) << 2);
+        keys = new long[slots];
+        values = new int[slots];
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9e3779b97f4a7c15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    public int get(final long key, final int missing) {
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot] - 1;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Associate the non-negative value with the key,
+     * returning the previous value or {@code -1}.
+     */
+    public int put(final long key, final int value) {
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for ( ; values[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                final int previous = values[slot] - 1;
+                values[slot] = value + 1;
+                return previous;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value + 1;
+        if (++size << 1 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return -1;
+    }
+
+    private void rehash(final int slots) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new long[slots];
+        values = new int[slots];
+        final int mask = slots - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
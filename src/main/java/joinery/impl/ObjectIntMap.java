@@ -0,0 +1,156 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.util.Arrays;
+
+/**
+ * An insertion ordered map of objects to primitive integers.
+ *
+ * Entries are stored in parallel key and value arrays in the order
+ * they were added and located through an open addressing table of
+ * entry numbers using linear probing.  Entries can not be removed,
+ * which is all that is needed for indexing rows and columns.
+ */
+public class ObjectIntMap {
+    private static final int MIN_CAPACITY = 8;
+
+    private Object[] keys;
+    private int[] values;
+    // entry number + 1 for each slot, zero for empty slots
+    private int[] table;
+    private int size = 0;
+
+    public ObjectIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public ObjectIntMap(final int capacity) {
+        final int cap = Math.max(MIN_CAPACITY, capacity);
+        keys = new Object[cap];
+        values = new int[cap];
+        table = new int[slots(cap)];
+    }
+
+    private static int slots(final int capacity) {
+        // keep the table at most half full
+        return Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity) - 1) << 2;
+    }
+
+    private static int hash(final Object key) {
+        final int h = key == null ? 0 : key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == b || a != null && a.equals(b);
+    }
+
+    /**
+     * Return the entry number for the specified key or
+     * {@code -1} if the key is not present.
+     */
+    public int entry(final Object key) {
+        final int mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            final int e = table[slot] - 1;
+            if (e < 0) {
+                return -1;
+            }
+            if (equal(keys[e], key)) {
+                return e;
+            }
+        }
+    }
+
+    public boolean containsKey(final Object key) {
+        return entry(key) >= 0;
+    }
+
+    public int get(final Object key, final int missing) {
+        final int e = entry(key);
+        return e < 0 ? missing : values[e];
+    }
+
+    /**
+     * Associate the value with the key, returning the entry number
+     * if the key was already present or {@code -1} otherwise.
+     */
+    public int put(final Object key, final int value) {
+        final int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        for ( ; table[slot] != 0; slot = (slot + 1) & mask) {
+            final int e = table[slot] - 1;
+            if (equal(keys[e], key)) {
+                values[e] = value;
+                return e;
+            }
+        }
+
+        if (size == keys.length) {
+            final int capacity = keys.length + (keys.length >> 1) + 1;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[size] = key;
+        values[size] = value;
+        table[slot] = ++size;
+
+        if (size << 1 > table.length) {
+            rehash(table.length << 1);
+        }
+        return -1;
+    }
+
+    private void rehash(final int slots) {
+        table = new int[slots];
+        final int mask = slots - 1;
+        for (int e = 0; e < size; e++) {
+            int slot = hash(keys[e]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = e + 1;
+        }
+    }
+
+    public Object key(final int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("Index: " + entry + ", Size: " + size);
+        }
+        return keys[entry];
+    }
+
+    public int value(final int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("Index: " + entry + ", Size: " + size);
+        }
+        return values[entry];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+/**
+ * The comparison operators of row filters.
+ *
+ * Comparisons of values return {@code -1}, {@code 0} or {@code 1}, or
+ * {@code 2} for values that can not be ordered, and each operator
+ * accepts a set of those results.  Numbers are compared by value
+ * regardless of their type, like the primitive operators, and other
+ * values are compared if they are comparable with the argument.
+ */
+public enum Operator {
+    EQ(0b0010),
+    NE(0b1101),
+    LT(0b0001),
+    LE(0b0011),
+    GT(0b0100),
+    GE(0b0110);
+
+    // comparisons return the bit accepted by each operator,
+    // values of unrelated types are only ever not equal
+    private static final int LESS = -1;
+    private static final int UNORDERED = 2;
+
+    private final int mask;
+
+    Operator(final int mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Return the bits of the comparison results accepted
+     * by this operator, indexed by the result plus one.
+     */
+    public int mask() {
+        return mask;
+    }
+
+    /**
+     * Compare two non-null values, returning {@code -1}, {@code 0}
+     * or {@code 1}, or {@code 2} for values that can not be ordered.
+     */
+    public static int compare(final Object value, final Object other) {
+        if (value instanceof Number && other instanceof Number) {
+            if (integral(value) && integral(other)) {
+                return Long.compare(Number.class.cast(value).longValue(), Number.class.cast(other).longValue());
+            }
+            // like the primitive operators, NaN is not ordered
+            final double x = Number.class.cast(value).doubleValue();
+            final double y = Number.class.cast(other).doubleValue();
+            return x < y ? -1 : x > y ? 1 : x == y ? 0 : UNORDERED;
+        }
+        if (value instanceof Comparable && value.getClass().isInstance(other)) {
+            @SuppressWarnings("unchecked")
+            final Comparable<Object> comparable = Comparable.class.cast(value);
+            return Integer.signum(comparable.compareTo(other));
+        }
+        return value.equals(other) ? 0 : UNORDERED;
+    }
+
+    public static boolean integral(final Object value) {
+        return value instanceof Long || value instanceof Integer ||
+               value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Return the bit for a comparison result in an operator mask.
+     */
+    static long accepts(final int mask, final int cmp) {
+        return (mask >>> (cmp - LESS)) & 1;
+    }
+}
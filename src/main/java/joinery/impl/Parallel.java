@@ -0,0 +1,198 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Support for splitting work on large data frames into
+ * ranges of rows processed on a fork-join pool.
+ */
+public class Parallel {
+
+    protected static int threshold = 100_000;
+
+    protected static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // settings overriding the global ones for the current thread
+    private static final ThreadLocal<Settings> local = new ThreadLocal<>();
+
+    private static final class Settings {
+        private final ForkJoinPool pool;
+        private final int threshold;
+
+        private Settings(final ForkJoinPool pool, final int threshold) {
+            this.pool = pool;
+            this.threshold = threshold;
+        }
+    }
+
+    public static int getThreshold() {
+        final Settings settings = local.get();
+        return settings != null ? settings.threshold : threshold;
+    }
+
+    /**
+     * Set the minimum number of rows for an operation to be
+     * split across threads, smaller data frames are processed
+     * serially.
+     *
+     * @param threshold the number of rows, {@code Integer.MAX_VALUE}
+     *        disables parallel processing
+     */
+    public static void setThreshold(final int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("invalid threshold " + threshold);
+        }
+        Parallel.threshold = threshold;
+    }
+
+    public static ForkJoinPool getPool() {
+        final Settings settings = local.get();
+        return settings != null ? settings.pool : pool;
+    }
+
+    public static void setPool(final ForkJoinPool pool) {
+        Parallel.pool = pool;
+    }
+
+    /**
+     * Run the task using the specified pool and threshold in place of
+     * the global settings, which are left unchanged for other threads.
+     * The settings apply to the operations started by the task and to
+     * any work they split across the pool.
+     *
+     * @param pool the pool to run the work on
+     * @param threshold the number of rows for operations to be split
+     * @param task the task to run
+     * @return the result of the task
+     */
+    public static <T> T call(final ForkJoinPool pool, final int threshold, final Callable<T> task)
+    throws Exception {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("invalid threshold " + threshold);
+        }
+        return call(new Settings(pool, threshold), task);
+    }
+
+    private static <T> T call(final Settings settings, final Callable<T> task)
+    throws Exception {
+        final Settings previous = local.get();
+        local.set(settings);
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) {
+                local.set(previous);
+            } else {
+                local.remove();
+            }
+        }
+    }
+
+    public interface RangeFunction<T> {
+        T apply(int start, int end);
+    }
+
+    /**
+     * Split the specified number of rows into consecutive ranges,
+     * returning the bounds of each range.  A single range is
+     * returned if the length is below the threshold.
+     */
+    public static int[] partition(final int length) {
+        final int threshold = getThreshold();
+        final int parts = length < threshold ? 1 :
+                Math.max(1, Math.min(getPool().getParallelism(), length / Math.max(1, threshold >> 2)));
+        final int[] bounds = new int[parts + 1];
+        for (int p = 1; p <= parts; p++) {
+            bounds[p] = (int)((long)length * p / parts);
+        }
+        return bounds;
+    }
+
+    /**
+     * Return bounds with one range for each of the specified
+     * number of items, used to process columns or runs in parallel.
+     */
+    public static int[] each(final int count) {
+        final int[] bounds = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = i;
+        }
+        return bounds;
+    }
+
+    /**
+     * Apply the function to each range defined by the bounds,
+     * returning the results in range order.
+     */
+    public static <T> List<T> apply(final int[] bounds, final RangeFunction<T> function) {
+        final int parts = bounds.length - 1;
+        final List<T> results = new ArrayList<>(parts);
+        if (parts == 1) {
+            results.add(function.apply(bounds[0], bounds[1]));
+            return results;
+        }
+
+        // workers use the settings of the thread splitting the work
+        final Settings settings = local.get();
+        final List<Callable<T>> tasks = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int start = bounds[p];
+            final int end = bounds[p + 1];
+            final Callable<T> range = new Callable<T>() {
+                @Override
+                public T call() {
+                    return function.apply(start, end);
+                }
+            };
+            tasks.add(settings == null ? range : new Callable<T>() {
+                @Override
+                public T call()
+                throws Exception {
+                    return Parallel.call(settings, range);
+                }
+            });
+        }
+
+        for (final Future<T> future : getPool().invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (final ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw RuntimeException.class.cast(cause);
+                }
+                if (cause instanceof Error) {
+                    throw Error.class.cast(cause);
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+}
@@ -19,57 +19,69 @@
 package joinery.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import joinery.DataFrame;
 import joinery.DataFrame.Predicate;
 
 public class Selection {
-    public static <V> SparseBitSet select(final DataFrame<V> df, final Predicate<V> predicate) {
-        final SparseBitSet selected = new SparseBitSet();
+    public static <V> int[] select(final DataFrame<V> df, final Predicate<V> predicate) {
+        int[] selected = new int[16];
+        int count = 0;
         final Iterator<List<V>> rows = df.iterator();
         for (int r = 0; rows.hasNext(); r++) {
             if (predicate.apply(rows.next())) {
-                selected.set(r);
+                if (count == selected.length) {
+                    selected = Arrays.copyOf(selected, count << 1);
+                }
+                selected[count++] = r;
             }
         }
-        return selected;
+        return Arrays.copyOf(selected, count);
     }
 
     public static Index select(final Index index, final SparseBitSet selected) {
-        final List<Object> names = new ArrayList<>(index.names());
-        final Index newidx = new Index();
-        for (int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1)) {
-            final Object name = names.get(r);
-            newidx.add(name, index.get(name));
-        }
-        return newidx;
+        return select(index, selected.toIntArray());
     }
 
     public static <V> BlockManager<V> select(final BlockManager<V> blocks, final SparseBitSet selected) {
-        final List<List<V>> data = new LinkedList<List<V>>();
-        for (int c = 0; c < blocks.size(); c++) {
-            final List<V> column = new ArrayList<>(selected.cardinality());
-            for (int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1)) {
-                column.add(blocks.get(c, r));
+        return select(blocks, selected.toIntArray());
+    }
+
+    public static Index select(final Index index, final int[] rows) {
+        return index.select(rows);
+    }
+
+    public static <V> BlockManager<V> select(final BlockManager<V> blocks, final int[] rows) {
+        final int[] bounds = rows.length < Parallel.getThreshold() ?
+                new int[] { 0, blocks.size() } : Parallel.each(blocks.size());
+        final BlockManager<V> selected = new BlockManager<>();
+        for (final List<Block<V>> taken : Parallel.apply(bounds, new Parallel.RangeFunction<List<Block<V>>>() {
+                @Override
+                public List<Block<V>> apply(final int start, final int end) {
+                    final List<Block<V>> taken = new ArrayList<>(end - start);
+                    for (int c = start; c < end; c++) {
+                        taken.add(blocks.block(c).take(rows));
+                    }
+                    return taken;
+                }
+            })) {
+            for (final Block<V> block : taken) {
+                selected.add(block);
             }
-            data.add(column);
         }
-        return new BlockManager<>(data);
+        return selected;
     }
 
     public static <V> BlockManager<V> select(final BlockManager<V> blocks, final SparseBitSet rows, final SparseBitSet cols) {
-        final List<List<V>> data = new LinkedList<List<V>>();
-        for (int c = cols.nextSetBit(0); c >= 0; c = cols.nextSetBit(c + 1)) {
-            final List<V> column = new ArrayList<>(rows.cardinality());
-            for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1)) {
-                column.add(blocks.get(c, r));
-            }
-            data.add(column);
+        final int[] selected = rows.toIntArray();
+        final BlockManager<V> data = new BlockManager<>();
+        for (final int c : cols.toIntArray()) {
+            data.add(blocks.block(c).take(selected));
         }
-        return new BlockManager<>(data);
+        return data;
     }
 
     public static <V> SparseBitSet[] slice(final DataFrame<V> df,
@@ -25,8 +25,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -40,6 +45,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -60,7 +66,10 @@ import org.supercsv.io.CsvListWriter;
 import org.supercsv.prefs.CsvPreference;
 
 import joinery.DataFrame;
+import joinery.DataFrame.Function;
 import joinery.DataFrame.NumberDefault;
+import joinery.DataFrame.SortDirection;
+import joinery.Filters.Filter;
 
 public class Serialization {
 
@@ -70,6 +79,7 @@ public class Serialization {
     private static final String DELIMITER = "\t";
     private static final Object INDEX_KEY = new Object();
     private static final int    MAX_COLUMN_WIDTH = 20;
+    private static final int    BATCH_SIZE = ZoneMap.CHUNK_SIZE;
 
     public static String toString(final DataFrame<?> df, final int limit) {
         final int len = df.length();
@@ -234,6 +244,60 @@ public class Serialization {
                 new URL(file).openStream() : new FileInputStream(file), separator, numDefault, naString, hasHeader);
     }
 
+    /**
+     * Read only the named columns, in the order of the file, and only
+     * the rows satisfying the filter.  Unused columns are never converted.
+     *
+     * With a filter the file is read twice, first to find the type of
+     * each column and then to convert and filter the rows in batches,
+     * so only the matching rows are kept and they have the same values
+     * and row names as reading the whole file and then filtering it.
+     *
+     * @param columns the columns to read, or {@code null} for all columns
+     * @param filter the condition on the columns read, or {@code null} for all rows
+     */
+    public static DataFrame<Object> readCsv(final String file, final String separator, final NumberDefault numDefault, final String naString, final boolean hasHeader, final List<Object> columns, final Filter filter)
+    throws IOException {
+        if (filter == null) {
+            return readCsv(file.contains("://") ?
+                    new URL(file).openStream() : new FileInputStream(file), separator, numDefault, naString, hasHeader, columns, null);
+        }
+
+        final List<?> names;
+        final CellProcessor[] procs;
+        final int[] positions;
+        final int[] masks;
+        try (CsvListReader reader = new CsvListReader(new InputStreamReader(file.contains("://") ?
+                new URL(file).openStream() : new FileInputStream(file)), preference(separator))) {
+            final List<String> header = header(reader, hasHeader);
+            procs = new CellProcessor[header.size()];
+            positions = positions(header, columns);
+            names = names(header, positions);
+            masks = Conversion.conversions(names.size());
+            for (DataFrame<Object> batch = batch(reader, procs, names, positions, !hasHeader); batch.length() > 0; batch = batch(reader, procs, names, positions, false)) {
+                Conversion.narrow(batch, numDefault, naString, masks);
+            }
+        }
+
+        final Map<Integer, Function<Object, ?>> conversions = Conversion.conversions(numDefault, masks);
+        final DataFrame.Builder<Object> selected = new DataFrame.Builder<>(names);
+        try (CsvListReader reader = new CsvListReader(new InputStreamReader(file.contains("://") ?
+                new URL(file).openStream() : new FileInputStream(file)), preference(separator))) {
+            header(reader, hasHeader);
+            int offset = 0;
+            for (DataFrame<Object> batch = batch(reader, procs, names, positions, !hasHeader); batch.length() > 0; batch = batch(reader, procs, names, positions, false)) {
+                Conversion.convert(batch, conversions, naString);
+                final DataFrame<Object> matched = batch.select(filter);
+                final Iterator<Object> rows = matched.index().iterator();
+                for (final List<Object> row : matched) {
+                    selected.append(offset + Integer.class.cast(rows.next()), row);
+                }
+                offset += batch.length();
+            }
+        }
+        return selected.build();
+    }
+
     public static DataFrame<Object> readCsv(final InputStream input) 
     throws IOException {
         return readCsv(input, ",", NumberDefault.LONG_DEFAULT, null);
@@ -246,31 +310,30 @@ public class Serialization {
 
     public static DataFrame<Object> readCsv(final InputStream input, String separator, NumberDefault numDefault, String naString, boolean hasHeader)
     throws IOException {
-        CsvPreference csvPreference;
-        switch (separator) {
-            case "\\t":
-                csvPreference = CsvPreference.TAB_PREFERENCE;
-                break;
-            case ",":
-                csvPreference = CsvPreference.STANDARD_PREFERENCE;
-                break;
-            case ";":
-                csvPreference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
-                break;
-            case "|":
-            	csvPreference  = new CsvPreference.Builder('"', '|', "\n").build();
-                break;
-            default:
-                throw new IllegalArgumentException("Separator: " + separator + " is not currently supported");
-        }
-        try (CsvListReader reader = new CsvListReader(new InputStreamReader(input), csvPreference)) {
+        return readCsv(input, separator, numDefault, naString, hasHeader, null, null);
+    }
+
+    /**
+     * Read only the named columns, in the order of the file, and only
+     * the rows satisfying the filter.  The input can only be read once, so every
+     * row is converted before the filter is applied, use the overload
+     * taking a file name to filter the rows while reading.
+     *
+     * @param columns the columns to read, or {@code null} for all columns
+     * @param filter the condition on the columns read, or {@code null} for all rows
+     */
+    public static DataFrame<Object> readCsv(final InputStream input, String separator, NumberDefault numDefault, String naString, boolean hasHeader, final List<Object> columns, final Filter filter)
+    throws IOException {
+        try (CsvListReader reader = new CsvListReader(new InputStreamReader(input), preference(separator))) {
         	final List<String> header;
         	final DataFrame<Object> df;
         	final CellProcessor[] procs;
+        	final int[] positions;
         	if(hasHeader) {
         		header = Arrays.asList(reader.getHeader(true));
         		procs = new CellProcessor[header.size()];
-                df = new DataFrame<>(header);
+        		positions = positions(header, columns);
+                df = new DataFrame<>(names(header, positions));
         	} else {
         		// Read the first row to figure out how many columns we have
         		reader.read();
@@ -279,15 +342,196 @@ public class Serialization {
 					header.add("V"+i);
 				}
         		procs = new CellProcessor[header.size()];
-        		df = new DataFrame<>(header);
+        		positions = positions(header, columns);
+        		df = new DataFrame<>(names(header, positions));
         		// The following line executes the procs on the previously read row again
-        		df.append(reader.executeProcessors(procs));
+        		df.append(project(reader.executeProcessors(procs), positions));
         	}
             for (List<Object> row = reader.read(procs); row != null; row = reader.read(procs)) {
-                df.append(new ArrayList<>(row));
+                df.append(project(row, positions));
             }
-            return df.convert(numDefault, naString);
+            final DataFrame<Object> converted = df.convert(numDefault, naString);
+            return filter != null ? converted.select(filter) : converted;
+        }
+    }
+
+    private static CsvPreference preference(final String separator) {
+        switch (separator) {
+            case "\\t":
+                return CsvPreference.TAB_PREFERENCE;
+            case ",":
+                return CsvPreference.STANDARD_PREFERENCE;
+            case ";":
+                return CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+            case "|":
+                return new CsvPreference.Builder('"', '|', "\n").build();
+            default:
+                throw new IllegalArgumentException("Separator: " + separator + " is not currently supported");
+        }
+    }
+
+    /**
+     * Sort the rows of a csv file by the named columns, prefixed with
+     * {@code -} for descending order, and write them to the output as
+     * csv.  Only about {@code memory} bytes of rows are held in memory,
+     * the rest are sorted in runs written to temporary files.
+     *
+     * The file is read twice, first to find the type of each column and
+     * then to sort the converted rows, so the rows have the same values
+     * and order as reading the whole file and sorting the data frame.
+     * The sorted rows are written to a temporary file next to the output
+     * that replaces it once complete, so the output may be the input and
+     * is left unchanged if sorting fails.
+     */
+    public static void sortCsv(final String file, final String separator, final NumberDefault numDefault, final String naString,
+            final String output, final long memory, final Object ... cols)
+    throws IOException {
+        final List<String> header;
+        final CellProcessor[] procs;
+        final int[] masks;
+        try (CsvListReader reader = new CsvListReader(new InputStreamReader(file.contains("://") ?
+                new URL(file).openStream() : new FileInputStream(file)), preference(separator))) {
+            header = Arrays.asList(reader.getHeader(true));
+            procs = new CellProcessor[header.size()];
+            masks = Conversion.conversions(header.size());
+            for (DataFrame<Object> batch = batch(reader, procs, header, null, false); batch.length() > 0; batch = batch(reader, procs, header, null, false)) {
+                Conversion.narrow(batch, numDefault, naString, masks);
+            }
+        }
+
+        final Map<Integer, Function<Object, ?>> conversions = Conversion.conversions(numDefault, masks);
+        try (ExternalSorting<Object> sorter = new ExternalSorting<>(header, sortColumns(header, cols), memory)) {
+            try (CsvListReader reader = new CsvListReader(new InputStreamReader(file.contains("://") ?
+                    new URL(file).openStream() : new FileInputStream(file)), preference(separator))) {
+                reader.getHeader(true);
+                for (DataFrame<Object> batch = batch(reader, procs, header, null, false); batch.length() > 0; batch = batch(reader, procs, header, null, false)) {
+                    Conversion.convert(batch, conversions, naString);
+                    for (final List<Object> row : batch) {
+                        sorter.append(row);
+                    }
+                }
+            }
+
+            final Path target = Paths.get(output).toAbsolutePath();
+            final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                try (CsvListWriter writer = new CsvListWriter(
+                        new OutputStreamWriter(Files.newOutputStream(temp)), preference(separator))) {
+                    writer.writeHeader(header.toArray(new String[header.size()]));
+                    final DateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+                    for (final List<Object> row : sorter) {
+                        for (int c = 0; c < row.size(); c++) {
+                            final Object value = row.get(c);
+                            row.set(c, value instanceof Date ? fmt.format(value) : value != null ? value : "");
+                        }
+                        writer.write(row);
+                    }
+                } catch (final UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static Map<Integer, SortDirection> sortColumns(final List<String> header, final Object ... cols) {
+        final Map<Integer, SortDirection> sortCols = new LinkedHashMap<>();
+        for (final Object col : cols) {
+            final String str = String.valueOf(col);
+            final boolean descending = str.startsWith("-");
+            final int c = header.indexOf(descending ? str.substring(1) : str);
+            if (c < 0) {
+                throw new IllegalArgumentException("column " + col + " not found in csv header " + header);
+            }
+            sortCols.put(c, descending ? SortDirection.DESCENDING : SortDirection.ASCENDING);
+        }
+        return sortCols;
+    }
+
+    /**
+     * Return the column names from the header, or for a file without
+     * a header read the first row to name its columns {@code V0, V1, ...}.
+     */
+    private static List<String> header(final CsvListReader reader, final boolean hasHeader)
+    throws IOException {
+        if (hasHeader) {
+            return Arrays.asList(reader.getHeader(true));
+        }
+        reader.read();
+        final List<String> header = new ArrayList<>();
+        for (int i = 0; i < reader.length(); i++) {
+            header.add("V" + i);
+        }
+        return header;
+    }
+
+    /**
+     * Read up to {@link #BATCH_SIZE} rows, starting with the row
+     * already read if {@code first} is {@code true}, returning an
+     * empty data frame once there are no more rows.
+     */
+    private static DataFrame<Object> batch(final CsvListReader reader, final CellProcessor[] procs,
+            final List<?> columns, final int[] positions, final boolean first)
+    throws IOException {
+        final DataFrame.Builder<Object> batch = new DataFrame.Builder<>(columns, BATCH_SIZE);
+        if (first) {
+            batch.append(project(reader.executeProcessors(procs), positions));
+        }
+        for (List<Object> row = null; batch.length() < BATCH_SIZE && (row = reader.read(procs)) != null; ) {
+            batch.append(project(row, positions));
+        }
+        return batch.build();
+    }
+
+    /**
+     * Return the positions of the named columns in the header, in the
+     * order of the header like {@link DataFrame#retain(Object...)}.
+     */
+    private static int[] positions(final List<String> header, final List<Object> columns) {
+        if (columns == null) {
+            return null;
+        }
+        final boolean[] read = new boolean[header.size()];
+        int count = 0;
+        for (final Object column : columns) {
+            final int c = header.indexOf(column);
+            if (c < 0) {
+                throw new IllegalArgumentException("column " + column + " not found in csv header " + header);
+            }
+            count += read[c] ? 0 : 1;
+            read[c] = true;
+        }
+        final int[] positions = new int[count];
+        for (int c = 0, i = 0; c < read.length; c++) {
+            if (read[c]) {
+                positions[i++] = c;
+            }
+        }
+        return positions;
+    }
+
+    private static List<Object> names(final List<String> header, final int[] positions) {
+        if (positions == null) {
+            return new ArrayList<Object>(header);
+        }
+        final List<Object> names = new ArrayList<>(positions.length);
+        for (final int c : positions) {
+            names.add(header.get(c));
+        }
+        return names;
+    }
+
+    private static List<Object> project(final List<Object> row, final int[] positions) {
+        if (positions == null) {
+            return new ArrayList<>(row);
+        }
+        final List<Object> values = new ArrayList<>(positions.length);
+        for (final int c : positions) {
+            values.add(row.get(c));
         }
+        return values;
     }
 
     public static <V> void writeCsv(final DataFrame<V> df, final String output)
@@ -21,26 +21,194 @@ package joinery.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
 import joinery.DataFrame;
 import joinery.DataFrame.SortDirection;
 
+/**
+ * Sorting returns the permutation of rows in sorted order,
+ * which callers use to gather the sorted data column by column.
+ *
+ * Sort keys that are non-null primitives or dates are encoded as
+ * longs that compare like the original values when treated as
+ * unsigned, and sorted using a stable least significant digit
+ * radix sort from the last key to the first.  Other keys fall
+ * back to a stable comparison sort.
+ */
 public class Sorting {
-    public static <V> DataFrame<V> sort(
-            final DataFrame<V> df, final Map<Integer, SortDirection> cols) {
-        final Comparator<List<V>> comparator = new Comparator<List<V>>() {
+    private static final int BITS = 8;
+    private static final int RADIX = 1 << BITS;
+    private static final int PASSES = (Long.SIZE + BITS - 1) / BITS;
+
+    public static <V> int[] sort(
+            final BlockManager<V> data, final Map<Integer, SortDirection> cols) {
+        final List<long[]> keys = new ArrayList<>(cols.size());
+        for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
+            final long[] key = encode(data.block(col.getKey()), col.getValue());
+            if (key == null) {
+                return compare(data, cols);
+            }
+            keys.add(key);
+        }
+        return sort(keys, data.length());
+    }
+
+    /**
+     * Return the leading sort columns of the sorted data that are
+     * in ascending order and hold only non-null primitive values,
+     * which a merge join can rely on without checking the rows.
+     */
+    public static <V> Integer[] ascending(
+            final BlockManager<V> data, final Map<Integer, SortDirection> cols) {
+        final List<Integer> ascending = new ArrayList<>(cols.size());
+        for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
+            final Block<V> block = data.block(col.getKey());
+            if (col.getValue() != SortDirection.ASCENDING || block.type() == Object.class) {
+                break;
+            }
+            for (int r = 0; r < block.size(); r++) {
+                if (block.isNull(r)) {
+                    return ascending.toArray(new Integer[ascending.size()]);
+                }
+            }
+            ascending.add(col.getKey());
+        }
+        return ascending.toArray(new Integer[ascending.size()]);
+    }
+
+    /**
+     * Return the stable sort order of the rows described by the
+     * specified keys, each an array of values encoded as longs
+     * that compare like the original values when unsigned.
+     */
+    public static int[] sort(final List<long[]> keys, final int length) {
+        final int[] bounds = Parallel.partition(length);
+        if (bounds.length == 2) {
+            return sort(keys, 0, length);
+        }
+
+        // sort each range into a run, then merge runs pairwise
+        List<int[]> runs = Parallel.apply(bounds, new Parallel.RangeFunction<int[]>() {
+            @Override
+            public int[] apply(final int start, final int end) {
+                return sort(keys, start, end);
+            }
+        });
+        while (runs.size() > 1) {
+            final List<int[]> level = runs;
+            runs = Parallel.apply(Parallel.each((level.size() + 1) / 2), new Parallel.RangeFunction<int[]>() {
+                @Override
+                public int[] apply(final int start, final int end) {
+                    final int left = start * 2;
+                    return left + 1 < level.size() ?
+                            merge(keys, level.get(left), level.get(left + 1)) :
+                            level.get(left);
+                }
+            });
+        }
+        return runs.get(0);
+    }
+
+    private static int[] sort(final List<long[]> keys, final int start, final int end) {
+        final int len = end - start;
+        final int[] rows = new int[len];
+        for (int i = 0; i < len; i++) {
+            rows[i] = start + i;
+        }
+
+        for (int k = keys.size() - 1; k >= 0; k--) {
+            final long[] key = keys.get(k);
+            final long[] aligned = new long[len];
+            for (int i = 0; i < len; i++) {
+                aligned[i] = key[rows[i]];
+            }
+            radix(aligned, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Stable merge of two sorted runs where every row of
+     * the left run precedes every row of the right run.
+     */
+    private static int[] merge(final List<long[]> keys, final int[] left, final int[] right) {
+        final int[] merged = new int[left.length + right.length];
+        int l = 0, r = 0, m = 0;
+        while (l < left.length && r < right.length) {
+            merged[m++] = compare(keys, right[r], left[l]) < 0 ? right[r++] : left[l++];
+        }
+        while (l < left.length) {
+            merged[m++] = left[l++];
+        }
+        while (r < right.length) {
+            merged[m++] = right[r++];
+        }
+        return merged;
+    }
+
+    private static int compare(final List<long[]> keys, final int r1, final int r2) {
+        for (final long[] key : keys) {
+            final int result = Long.compareUnsigned(key[r1], key[r2]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    public static <V> int[] sort(
+            final DataFrame<V> df, final Comparator<List<V>> comparator) {
+        final int len = df.length();
+        final List<List<V>> values = new ArrayList<>(len);
+        for (int r = 0; r < len; r++) {
+            values.add(df.row(r));
+        }
+        return sort(len, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer r1, final Integer r2) {
+                return comparator.compare(values.get(r1), values.get(r2));
+            }
+        });
+    }
+
+    private static <V> int[] compare(
+            final BlockManager<V> data, final Map<Integer, SortDirection> cols) {
+        final RowComparator comparator = comparator(data, cols);
+        return sort(data.length(), new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer r1, final Integer r2) {
+                return comparator.compare(r1, r2);
+            }
+        });
+    }
+
+    private interface RowComparator {
+        int compare(int r1, int r2);
+    }
+
+    private static <V> RowComparator comparator(
+            final BlockManager<V> data, final Map<Integer, SortDirection> cols) {
+        final Object[][] values = new Object[cols.size()][];
+        final boolean[] descending = new boolean[cols.size()];
+        int k = 0;
+        for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
+            final Block<V> block = data.block(col.getKey());
+            values[k] = block.toArray();
+            descending[k++] = col.getValue() == SortDirection.DESCENDING;
+        }
+
+        return new RowComparator() {
             @Override
             @SuppressWarnings("unchecked")
-            public int compare(final List<V> r1, final List<V> r2) {
+            public int compare(final int r1, final int r2) {
                 int result = 0;
-                for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
-                    final int c = col.getKey();
-                    final Comparable<V> v1 = Comparable.class.cast(r1.get(c));
-                    final V v2 = r2.get(c);
-                    result = v1.compareTo(v2);
-                    result *= col.getValue() == SortDirection.DESCENDING ? -1 : 1;
+                for (int k = 0; k < values.length; k++) {
+                    final Comparable<Object> v1 = Comparable.class.cast(values[k][r1]);
+                    result = v1.compareTo(values[k][r2]);
+                    result *= descending[k] ? -1 : 1;
                     if (result != 0) {
                         break;
                     }
@@ -48,31 +216,230 @@ public class Sorting {
                 return result;
             }
         };
-        return sort(df, comparator);
     }
 
-    public static <V> DataFrame<V> sort(
-            final DataFrame<V> df, final Comparator<List<V>> comparator) {
-        final DataFrame<V> sorted = new DataFrame<V>(df.columns());
-        final Comparator<Integer> cmp = new Comparator<Integer>() {
-            @Override
-            public int compare(final Integer r1, final Integer r2) {
-                return comparator.compare(df.row(r1),  df.row(r2));
+    /**
+     * Return the positions of the first {@code n} rows in sorted order
+     * for each group, or the entire data frame if the data is not
+     * grouped, using a bounded heap per group instead of a full sort.
+     */
+    public static <V> int[] top(
+            final BlockManager<V> data, final Map<Integer, SortDirection> cols,
+            final int n, final Grouping groups) {
+        final List<long[]> keys = new ArrayList<>(cols.size());
+        for (final Map.Entry<Integer, SortDirection> col : cols.entrySet()) {
+            final long[] key = encode(data.block(col.getKey()), col.getValue());
+            if (key == null) {
+                keys.clear();
+                break;
             }
-        };
+            keys.add(key);
+        }
+
+        final RowComparator comparator = !keys.isEmpty() || cols.isEmpty() ?
+            new RowComparator() {
+                @Override
+                public int compare(final int r1, final int r2) {
+                    return Sorting.compare(keys, r1, r2);
+                }
+            } :
+            comparator(data, cols);
+
+        final int limit = Math.max(0, n);
+        if (groups.keys().isEmpty()) {
+            final Heap heap = new Heap(comparator, Math.min(limit, data.length()));
+            for (int r = 0; r < data.length(); r++) {
+                heap.offer(r);
+            }
+            return heap.sorted();
+        }
+
+        final List<int[]> selected = new ArrayList<>();
+        int count = 0;
+        for (final Map.Entry<Object, int[]> group : groups) {
+            final int[] rows = group.getValue();
+            final Heap heap = new Heap(comparator, Math.min(limit, rows.length));
+            for (final int r : rows) {
+                heap.offer(r);
+            }
+            selected.add(heap.sorted());
+            count += heap.size;
+        }
+
+        final int[] result = new int[count];
+        int i = 0;
+        for (final int[] rows : selected) {
+            System.arraycopy(rows, 0, result, i, rows.length);
+            i += rows.length;
+        }
+        return result;
+    }
+
+    /**
+     * A heap of the first rows in order offered so far, with the
+     * last of them at the root.  Rows with equal keys are ordered
+     * by position so the earliest rows are kept.
+     */
+    private static final class Heap {
+        private final RowComparator comparator;
+        private final int[] rows;
+        private int size = 0;
+
+        private Heap(final RowComparator comparator, final int capacity) {
+            this.comparator = comparator;
+            this.rows = new int[capacity];
+        }
+
+        private boolean before(final int r1, final int r2) {
+            final int result = comparator.compare(r1, r2);
+            return result < 0 || result == 0 && r1 < r2;
+        }
+
+        private void offer(final int row) {
+            if (size < rows.length) {
+                int i = size++;
+                rows[i] = row;
+                while (i > 0 && before(rows[(i - 1) / 2], rows[i])) {
+                    swap(i, (i - 1) / 2);
+                    i = (i - 1) / 2;
+                }
+            } else if (size > 0 && before(row, rows[0])) {
+                rows[0] = row;
+                down(0, size);
+            }
+        }
+
+        private void down(final int start, final int end) {
+            int i = start;
+            for (int child = 2 * i + 1; child < end; child = 2 * i + 1) {
+                if (child + 1 < end && before(rows[child], rows[child + 1])) {
+                    child++;
+                }
+                if (!before(rows[i], rows[child])) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(final int i, final int j) {
+            final int tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
 
-        final Integer[] rows = new Integer[df.length()];
-        for (int r = 0; r < df.length(); r++) {
-            rows[r] = r;
+        private int[] sorted() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                down(0, end);
+            }
+            return Arrays.copyOf(rows, size);
+        }
+    }
+
+    private static int[] sort(final int len, final Comparator<Integer> comparator) {
+        final Integer[] boxed = new Integer[len];
+        for (int r = 0; r < len; r++) {
+            boxed[r] = r;
+        }
+        if (len < Parallel.getThreshold()) {
+            Arrays.sort(boxed, comparator);
+        } else {
+            Arrays.parallelSort(boxed, comparator);
+        }
+
+        final int[] rows = new int[len];
+        for (int i = 0; i < len; i++) {
+            rows[i] = boxed[i];
+        }
+        return rows;
+    }
+
+    /**
+     * Encode the values of a block as longs in unsigned sort order,
+     * returning {@code null} if the block can not be encoded.
+     */
+    private static long[] encode(final Block<?> block, final SortDirection dir) {
+        final int len = block.size();
+        final boolean primitive = block.type() != Object.class;
+        final Class<?> type = primitive ? block.type() : Block.type(block);
+        if (type != Double.class && type != Long.class && type != Integer.class &&
+                type != Boolean.class && type != Date.class) {
+            return null;
+        }
+
+        final long[] keys = new long[len];
+        for (int r = 0; r < len; r++) {
+            if (block.isNull(r)) {
+                return null;
+            }
+
+            final long bits = primitive ? block.bits(r) : bits(block.get(r));
+            final long key = type != Double.class ? bits ^ Long.MIN_VALUE :
+                             bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+            keys[r] = dir == SortDirection.DESCENDING ? ~key : key;
+        }
+        return keys;
+    }
+
+    private static long bits(final Object value) {
+        if (value instanceof Double) {
+            return Double.doubleToLongBits(Double.class.cast(value));
+        } else if (value instanceof Boolean) {
+            return Boolean.class.cast(value) ? 1L : 0L;
+        } else if (value instanceof Date) {
+            return Date.class.cast(value).getTime();
+        }
+        return Number.class.cast(value).longValue();
+    }
+
+    /**
+     * Stable radix sort of the rows by the keys, where
+     * {@code keys[i]} is the key for {@code rows[i]}.
+     */
+    private static void radix(final long[] keys, final int[] rows) {
+        final int len = rows.length;
+        final int[][] counts = new int[PASSES][RADIX];
+        for (int i = 0; i < len; i++) {
+            final long key = keys[i];
+            for (int p = 0; p < PASSES; p++) {
+                counts[p][(int)(key >>> (p * BITS)) & (RADIX - 1)]++;
+            }
         }
-        Arrays.sort(rows, cmp);
 
-        final List<Object> labels = new ArrayList<>(df.index());
-        for (final Integer r : rows) {
-            final Object label = r < labels.size() ? labels.get(r) : r;
-            sorted.append(label, df.row(r));
+        long[] k = keys, ktmp = new long[len];
+        int[] r = rows, rtmp = new int[len];
+        for (int p = 0; p < PASSES; p++) {
+            final int shift = p * BITS;
+            final int[] offsets = counts[p];
+            // skip digits that are the same for every key
+            if (len == 0 || offsets[(int)(k[0] >>> shift) & (RADIX - 1)] == len) {
+                continue;
+            }
+
+            for (int b = 0, sum = 0; b < RADIX; b++) {
+                final int count = offsets[b];
+                offsets[b] = sum;
+                sum += count;
+            }
+
+            for (int i = 0; i < len; i++) {
+                final int pos = offsets[(int)(k[i] >>> shift) & (RADIX - 1)]++;
+                ktmp[pos] = k[i];
+                rtmp[pos] = r[i];
+            }
+
+            final long[] kswap = k;
+            k = ktmp;
+            ktmp = kswap;
+            final int[] rswap = r;
+            r = rtmp;
+            rtmp = rswap;
         }
 
-        return sorted;
+        if (r != rows) {
+            System.arraycopy(r, 0, rows, 0, len);
+        }
     }
 }
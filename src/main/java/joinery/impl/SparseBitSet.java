@@ -22,6 +22,7 @@ import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 /**
  * A sparse bit set implementation inspired by Drs. Haddon and Lemire.
@@ -86,33 +87,13 @@ public class SparseBitSet {
     }
 
     public void set(final int index, final boolean value) {
-        final int l1i = (index >> L1_SHIFT) & L1_MASK,
-                  l2i = (index >> L2_SHIFT) & L2_MASK,
-                  l3i = (index >> L3_SHIFT) & L3_MASK,
-                  l4i = (index            ) & L4_MASK;
-        if (value) {
-            if (bits.length <= l1i && l1i < L1_SIZE) {
-                final int size = min(L1_SIZE, max(bits.length << 1,
-                    1 << (Integer.SIZE - Integer.numberOfLeadingZeros(l1i))));
-                if (bits.length < size) {
-                    bits = Arrays.copyOf(bits, size);
-                }
-            }
-            if (bits[l1i] == null) {
-                bits[l1i] = new long[L2_SIZE][];
-            }
-            if (bits[l1i][l2i] == null) {
-                bits[l1i][l2i] = new long[L3_SIZE];
-            }
-
-            bits[l1i][l2i][l3i] |= (1L << l4i);
-            cardinality++;
-        } else {
-            // don't allocate blocks if clearing bits
-            if (l1i < bits.length && bits[l1i] != null && bits[l1i][l2i] != null) {
-                bits[l1i][l2i][l3i] &= ~(1L << l4i);
-                cardinality--;
-            }
+        final int l3i = (index >> L3_SHIFT) & L3_MASK;
+        final long bit = 1L << (index & L4_MASK);
+        // don't allocate blocks if clearing bits
+        final long[] words = words(index, value);
+        if (words != null && ((words[l3i] & bit) != 0L) != value) {
+            words[l3i] ^= bit;
+            cardinality += value ? 1 : -1;
         }
     }
 
@@ -121,9 +102,7 @@ public class SparseBitSet {
     }
 
     public void set(final int start, final int end) {
-        for (int i = start; i < end; i++) {
-            set(i);
-        }
+        range(start, end, SET);
     }
 
     public void clear(final int index) {
@@ -131,9 +110,7 @@ public class SparseBitSet {
     }
 
     public void clear(final int start, final int end) {
-        for (int i = start; i < end; i++) {
-            clear(i);
-        }
+        range(start, end, CLEAR);
     }
 
     public void flip(final int index) {
@@ -141,9 +118,7 @@ public class SparseBitSet {
     }
 
     public void flip(final int start, final int end) {
-        for (int i = start; i < end; i++) {
-            flip(i);
-        }
+        range(start, end, FLIP);
     }
 
     public void clear() {
@@ -155,14 +130,187 @@ public class SparseBitSet {
         return cardinality;
     }
 
+    /**
+     * Return the long values holding the bit at the specified index,
+     * allocating them if necessary, or {@code null} if they have not
+     * been allocated and {@code create} is false.
+     */
+    private long[] words(final int index, final boolean create) {
+        final int l1i = (index >> L1_SHIFT) & L1_MASK,
+                  l2i = (index >> L2_SHIFT) & L2_MASK;
+        if (!create) {
+            return l1i < bits.length && bits[l1i] != null ? bits[l1i][l2i] : null;
+        }
+
+        if (bits.length <= l1i && l1i < L1_SIZE) {
+            final int size = min(L1_SIZE, max(bits.length << 1,
+                1 << (Integer.SIZE - Integer.numberOfLeadingZeros(l1i))));
+            if (bits.length < size) {
+                bits = Arrays.copyOf(bits, size);
+            }
+        }
+        if (bits[l1i] == null) {
+            bits[l1i] = new long[L2_SIZE][];
+        }
+        if (bits[l1i][l2i] == null) {
+            bits[l1i][l2i] = new long[L3_SIZE];
+        }
+        return bits[l1i][l2i];
+    }
+
+    private static final int SET = 0;
+    private static final int CLEAR = 1;
+    private static final int FLIP = 2;
+
+    private void range(final int start, final int end, final int op) {
+        for (int i = start; i < end; ) {
+            // update up to the end of the long containing i at once
+            final int next = (int)min(end, ((long)i | L4_MASK) + 1);
+            final long mask = (-1L >>> (Long.SIZE - (next - i))) << (i & L4_MASK);
+            final long[] words = words(i, op != CLEAR);
+            if (words != null) {
+                final int l3i = (i >> L3_SHIFT) & L3_MASK;
+                final long before = words[l3i];
+                words[l3i] = op == SET ? before | mask : op == CLEAR ? before & ~mask : before ^ mask;
+                cardinality += Long.bitCount(words[l3i]) - Long.bitCount(before);
+            }
+            i = next;
+        }
+    }
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int XOR = 2;
+    private static final int AND_NOT = 3;
+
+    /**
+     * Retain only the bits that are also set in the argument.
+     */
+    public SparseBitSet and(final SparseBitSet other) {
+        return combine(this, other, AND, this);
+    }
+
+    /**
+     * Set the bits that are set in the argument.
+     */
+    public SparseBitSet or(final SparseBitSet other) {
+        return combine(this, other, OR, this);
+    }
+
+    /**
+     * Flip the bits that are set in the argument.
+     */
+    public SparseBitSet xor(final SparseBitSet other) {
+        return combine(this, other, XOR, this);
+    }
+
+    /**
+     * Clear the bits that are set in the argument.
+     */
+    public SparseBitSet andNot(final SparseBitSet other) {
+        return combine(this, other, AND_NOT, this);
+    }
+
+    public static SparseBitSet and(final SparseBitSet a, final SparseBitSet b) {
+        return combine(a, b, AND, new SparseBitSet());
+    }
+
+    public static SparseBitSet or(final SparseBitSet a, final SparseBitSet b) {
+        return combine(a, b, OR, new SparseBitSet());
+    }
+
+    public static SparseBitSet xor(final SparseBitSet a, final SparseBitSet b) {
+        return combine(a, b, XOR, new SparseBitSet());
+    }
+
+    public static SparseBitSet andNot(final SparseBitSet a, final SparseBitSet b) {
+        return combine(a, b, AND_NOT, new SparseBitSet());
+    }
+
+    /**
+     * Combine the bits of two sets a block of longs at a time, storing
+     * the result in the target which may be the first set.  Blocks
+     * missing from either set are treated as zero and blocks that
+     * end up empty are released.
+     */
+    private static SparseBitSet combine(final SparseBitSet a, final SparseBitSet b, final int op, final SparseBitSet target) {
+        final int len = op == AND ? min(a.bits.length, b.bits.length) :
+                        op == AND_NOT ? a.bits.length : max(a.bits.length, b.bits.length);
+        final long[][][] bits = target.bits.length < len ? Arrays.copyOf(target.bits, len) : target.bits;
+        final boolean reuse = target == a;
+        int cardinality = 0;
+
+        for (int l1i = 0; l1i < bits.length; l1i++) {
+            final long[][] x = l1i < a.bits.length ? a.bits[l1i] : null;
+            final long[][] y = l1i < b.bits.length ? b.bits[l1i] : null;
+            if (l1i >= len || x == null && y == null) {
+                bits[l1i] = null;
+                continue;
+            }
+
+            final long[][] blocks = reuse && x != null ? x : new long[L2_SIZE][];
+            boolean empty = true;
+            for (int l2i = 0; l2i < L2_SIZE; l2i++) {
+                final long[] words = combine(x != null ? x[l2i] : null, y != null ? y[l2i] : null, op, reuse);
+                int count = 0;
+                if (words != null) {
+                    for (final long word : words) {
+                        count += Long.bitCount(word);
+                    }
+                }
+                blocks[l2i] = count > 0 ? words : null;
+                cardinality += count;
+                empty &= count == 0;
+            }
+            bits[l1i] = empty ? null : blocks;
+        }
+
+        target.bits = bits;
+        target.cardinality = cardinality;
+        return target;
+    }
+
+    private static long[] combine(final long[] x, final long[] y, final int op, final boolean reuse) {
+        if (x == null || y == null) {
+            final long[] words = op == AND || x == null && op == AND_NOT ? null : x != null ? x : y;
+            // blocks from the second set are never shared
+            return words == null || reuse && words == x ? words : words.clone();
+        }
+
+        final long[] words = reuse ? x : new long[L3_SIZE];
+        switch (op) {
+            case AND:
+                for (int i = 0; i < L3_SIZE; i++) {
+                    words[i] = x[i] & y[i];
+                }
+                break;
+            case OR:
+                for (int i = 0; i < L3_SIZE; i++) {
+                    words[i] = x[i] | y[i];
+                }
+                break;
+            case XOR:
+                for (int i = 0; i < L3_SIZE; i++) {
+                    words[i] = x[i] ^ y[i];
+                }
+                break;
+            default:
+                for (int i = 0; i < L3_SIZE; i++) {
+                    words[i] = x[i] & ~y[i];
+                }
+                break;
+        }
+        return words;
+    }
+
     public int nextSetBit(final int index) {
         int l1i = (index >> L1_SHIFT) & L1_MASK,
             l2i = (index >> L2_SHIFT) & L2_MASK,
             l3i = (index >> L3_SHIFT) & L3_MASK,
             l4i = (index            ) & L4_MASK;
 
-        for ( ; l1i < bits.length; l1i++, l2i = 0) {
-            for ( ; bits[l1i] != null && l2i < bits[l1i].length; l2i++, l3i = 0) {
+        for ( ; l1i < bits.length; l1i++, l2i = 0, l3i = 0, l4i = 0) {
+            for ( ; bits[l1i] != null && l2i < bits[l1i].length; l2i++, l3i = 0, l4i = 0) {
                 for ( ; bits[l1i][l2i] != null && l3i < bits[l1i][l2i].length; l3i++, l4i = 0) {
                     l4i += Long.numberOfTrailingZeros(bits[l1i][l2i][l3i] >> l4i);
                     if ((bits[l1i][l2i][l3i] & (1L << l4i)) != 0L) {
@@ -178,6 +326,96 @@ public class SparseBitSet {
         return -1;
     }
 
+    /**
+     * Perform the action for the index of each set bit in order.
+     */
+    public void forEach(final IntConsumer action) {
+        for (int l1i = 0; l1i < bits.length; l1i++) {
+            for (int l2i = 0; bits[l1i] != null && l2i < L2_SIZE; l2i++) {
+                for (int l3i = 0; bits[l1i][l2i] != null && l3i < L3_SIZE; l3i++) {
+                    final int base = (l1i << L1_SHIFT) | (l2i << L2_SHIFT) | (l3i << L3_SHIFT);
+                    for (long word = bits[l1i][l2i][l3i]; word != 0L; word &= word - 1) {
+                        action.accept(base | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the indices of the set bits in order.
+     */
+    public int[] toIntArray() {
+        final int[] indices = new int[cardinality];
+        int i = 0;
+        for (int l1i = 0; l1i < bits.length; l1i++) {
+            for (int l2i = 0; bits[l1i] != null && l2i < L2_SIZE; l2i++) {
+                for (int l3i = 0; bits[l1i][l2i] != null && l3i < L3_SIZE; l3i++) {
+                    final int base = (l1i << L1_SHIFT) | (l2i << L2_SHIFT) | (l3i << L3_SHIFT);
+                    for (long word = bits[l1i][l2i][l3i]; word != 0L; word &= word - 1) {
+                        indices[i++] = base | Long.numberOfTrailingZeros(word);
+                    }
+                }
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Return the number of set bits before the specified index.
+     */
+    public int rank(final int index) {
+        if (index <= 0) {
+            return 0;
+        }
+        int rank = 0;
+        final int last = (index - 1) >> L3_SHIFT;
+        for (int l1i = 0; l1i < bits.length && l1i <= last >> (L1_SHIFT - L3_SHIFT); l1i++) {
+            for (int l2i = 0; bits[l1i] != null && l2i < L2_SIZE; l2i++) {
+                for (int l3i = 0; bits[l1i][l2i] != null && l3i < L3_SIZE; l3i++) {
+                    final int w = (l1i << (L1_SHIFT - L3_SHIFT)) | (l2i << (L2_SHIFT - L3_SHIFT)) | l3i;
+                    if (w < last) {
+                        rank += Long.bitCount(bits[l1i][l2i][l3i]);
+                    } else if (w == last) {
+                        return rank + Long.bitCount(bits[l1i][l2i][l3i] & (-1L >>> (L4_MASK - ((index - 1) & L4_MASK))));
+                    } else {
+                        return rank;
+                    }
+                }
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Return the index of the set bit with the specified rank,
+     * counting from zero, or {@code -1} if there are not enough
+     * bits set.
+     */
+    public int select(final int rank) {
+        if (rank < 0 || rank >= cardinality) {
+            return -1;
+        }
+        int remaining = rank;
+        for (int l1i = 0; l1i < bits.length; l1i++) {
+            for (int l2i = 0; bits[l1i] != null && l2i < L2_SIZE; l2i++) {
+                for (int l3i = 0; bits[l1i][l2i] != null && l3i < L3_SIZE; l3i++) {
+                    long word = bits[l1i][l2i][l3i];
+                    final int count = Long.bitCount(word);
+                    if (remaining < count) {
+                        for ( ; remaining > 0; remaining--) {
+                            word &= word - 1;
+                        }
+                        return (l1i << L1_SHIFT) | (l2i << L2_SHIFT) | (l3i << L3_SHIFT) |
+                               Long.numberOfTrailingZeros(word);
+                    }
+                    remaining -= count;
+                }
+            }
+        }
+        return -1;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -0,0 +1,230 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.impl;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * The minimum, maximum and number of nulls for each chunk of
+ * rows of a numeric or date column, used to skip chunks that can
+ * not satisfy a comparison without looking at their values.
+ *
+ * Bounds are kept as doubles, rounded outwards where a long or a
+ * date does not have an exact double value, and {@code NaN} values
+ * are left out since they only satisfy {@link Operator#NE}.
+ */
+public final class ZoneMap {
+    // a multiple of the word size so chunks start on word boundaries
+    public static final int CHUNK_SHIFT = 12;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // the largest magnitude up to which every long is a double
+    private static final long EXACT = 1L << 53;
+
+    private double[] min = new double[1];
+    private double[] max = new double[1];
+    private int[] nulls = new int[1];
+    private int length = 0;
+    // whether the values are dates rather than numbers, once known
+    private Boolean dates = null;
+
+    ZoneMap() {
+        min[0] = Double.POSITIVE_INFINITY;
+        max[0] = Double.NEGATIVE_INFINITY;
+    }
+
+    private ZoneMap(final ZoneMap other) {
+        min = other.min.clone();
+        max = other.max.clone();
+        nulls = other.nulls.clone();
+        length = other.length;
+        dates = other.dates;
+    }
+
+    ZoneMap copy() {
+        return new ZoneMap(this);
+    }
+
+    /**
+     * Include the value appended at the end of the column, returning
+     * this zone map or {@code null} if the value can not be tracked.
+     */
+    ZoneMap add(final Object value) {
+        if (value == null) {
+            return addNull();
+        } else if (value instanceof Double) {
+            return add(Double.class.cast(value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer) {
+            return add(Number.class.cast(value).longValue());
+        } else if (value.getClass() == Date.class) {
+            // only plain dates, other classes do not compare with them
+            if (!kind(true)) {
+                return null;
+            }
+            include(chunk(), Date.class.cast(value).getTime());
+            length++;
+            return this;
+        }
+        return null;
+    }
+
+    ZoneMap addNull() {
+        final int chunk = chunk();
+        nulls[chunk]++;
+        length++;
+        return this;
+    }
+
+    ZoneMap add(final double value) {
+        if (!kind(false)) {
+            return null;
+        }
+        final int chunk = chunk();
+        if (value == value) {
+            include(chunk, value, value);
+        }
+        length++;
+        return this;
+    }
+
+    ZoneMap add(final long value) {
+        if (!kind(false)) {
+            return null;
+        }
+        include(chunk(), value);
+        length++;
+        return this;
+    }
+
+    // the chunk of the next value, growing the bounds if necessary
+    private int chunk() {
+        final int chunk = length >>> CHUNK_SHIFT;
+        if (chunk == min.length) {
+            final int chunks = chunk << 1;
+            min = Arrays.copyOf(min, chunks);
+            max = Arrays.copyOf(max, chunks);
+            nulls = Arrays.copyOf(nulls, chunks);
+            Arrays.fill(min, chunk, chunks, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, chunk, chunks, Double.NEGATIVE_INFINITY);
+        }
+        return chunk;
+    }
+
+    private boolean kind(final boolean date) {
+        if (dates == null) {
+            dates = date;
+        }
+        return dates == date;
+    }
+
+    private void include(final int chunk, final long value) {
+        include(chunk, low(value), high(value));
+    }
+
+    // the nearest doubles at or below and at or above the value
+    private static double low(final long value) {
+        return -EXACT <= value && value <= EXACT ? value : Math.nextDown((double)value);
+    }
+
+    private static double high(final long value) {
+        return -EXACT <= value && value <= EXACT ? value : Math.nextUp((double)value);
+    }
+
+    private void include(final int chunk, final double low, final double high) {
+        if (low < min[chunk]) {
+            min[chunk] = low;
+        }
+        if (high > max[chunk]) {
+            max[chunk] = high;
+        }
+    }
+
+    public int chunks() {
+        return (length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+    }
+
+    /**
+     * Return the smallest value in the chunk, or positive infinity
+     * if it has no values other than {@code null} or {@code NaN}.
+     */
+    public double min(final int chunk) {
+        return min[chunk];
+    }
+
+    /**
+     * Return the largest value in the chunk, or negative infinity
+     * if it has no values other than {@code null} or {@code NaN}.
+     */
+    public double max(final int chunk) {
+        return max[chunk];
+    }
+
+    public int nulls(final int chunk) {
+        return nulls[chunk];
+    }
+
+    /**
+     * Return true if no value in the chunk containing the
+     * row satisfies the comparison with the argument.
+     */
+    boolean skip(final int row, final Operator op, final Object value) {
+        final int chunk = row >>> CHUNK_SHIFT;
+        if (op == Operator.NE) {
+            return false;
+        }
+        if (min[chunk] > max[chunk]) {
+            // nulls and NaN are only ever not equal
+            return true;
+        }
+
+        final double low, high;
+        if (value instanceof Number && !Boolean.TRUE.equals(dates)) {
+            if (Operator.integral(value)) {
+                final long v = Number.class.cast(value).longValue();
+                low = low(v);
+                high = high(v);
+            } else {
+                low = high = Number.class.cast(value).doubleValue();
+            }
+        } else if (value instanceof Date && Boolean.TRUE.equals(dates)) {
+            final long v = Date.class.cast(value).getTime();
+            low = low(v);
+            high = high(v);
+        } else {
+            return false;
+        }
+        if (low != low) {
+            return false;
+        }
+
+        switch (op) {
+            case EQ:
+                return high < min[chunk] || low > max[chunk];
+            case LT:
+                return min[chunk] >= high;
+            case LE:
+                return min[chunk] > high;
+            case GT:
+                return max[chunk] <= low;
+            default:
+                return max[chunk] < low;
+        }
+    }
+}
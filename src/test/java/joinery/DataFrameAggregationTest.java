@@ -19,6 +19,12 @@
 package joinery;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import joinery.DataFrame.MergeableAggregate;
+import joinery.impl.Aggregation;
 
 import org.apache.commons.math3.exception.MathIllegalArgumentException;
 import org.junit.Before;
@@ -228,4 +234,57 @@ public class DataFrameAggregationTest {
         df.set(1, 3, null);
         df.median();
     }
+
+    @Test
+    public void testMergeableAggregate() {
+        final MergeableAggregate<Object, Number, Aggregation.Moments> var = new Aggregation.Variance<>();
+        final Aggregation.Moments first = var.create();
+        final Aggregation.Moments second = var.create();
+        for (int r = 0; r < df.length(); r++) {
+            var.add(r < 3 ? first : second, df.get(r, 2));
+        }
+        assertEquals(
+                Number.class.cast(df.var().get(0, 0)).doubleValue(),
+                var.finish(var.merge(first, second)).doubleValue(),
+                1e-9
+            );
+    }
+
+    @Test
+    public void testGroupedMergeableAggregate() {
+        assertArrayEquals(
+                new Object[] {
+                    "one", "two", "three",
+                    30L, 70L, 180L,
+                    30L, 70L, 180L
+                },
+                df.groupBy("b").aggregate(new MergeableAggregate<Object, Object, long[]>() {
+                    @Override
+                    public Object apply(final List<Object> values) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public long[] create() {
+                        return new long[1];
+                    }
+
+                    @Override
+                    public void add(final long[] state, final Object value) {
+                        state[0] += Number.class.cast(value).longValue();
+                    }
+
+                    @Override
+                    public long[] merge(final long[] state, final long[] other) {
+                        state[0] += other[0];
+                        return state;
+                    }
+
+                    @Override
+                    public Object finish(final long[] state) {
+                        return state[0];
+                    }
+                }).toArray()
+            );
+    }
 }
@@ -19,6 +19,8 @@
 package joinery;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.Arrays;
 import java.util.List;
@@ -175,4 +177,60 @@ public class DataFrameBasicTest {
     public final void testReindexStringDuplicates() {
         df.reindex("category");
     }
+
+    @Test
+    public final void testSetDifferentType() {
+        df.set("row2", "value", "twenty");
+        assertArrayEquals(
+                "data is correct",
+                new Object[] { 10, "twenty", 30, 40, 50, 60 },
+                df.col("value").toArray()
+            );
+    }
+
+    @Test
+    public final void testSetNull() {
+        df.set("row2", "value", null);
+        assertNull(df.get("row2", "value"));
+        df.set("row2", "value", 25);
+        assertEquals(25, df.get("row2", "value"));
+    }
+
+    @Test
+    public final void testNumericColumnsWithNulls() {
+        final DataFrame<Object> df = new DataFrame<>("a", "b", "c");
+        df.append(Arrays.<Object>asList(1.0, 1L, true));
+        df.append(Arrays.<Object>asList(null, null, null));
+        df.append(Arrays.<Object>asList(3.0));
+        assertArrayEquals(
+                "data is correct",
+                new Object[] { 1.0, null, 3.0, 1L, null, null, true, null, null },
+                df.toArray()
+            );
+    }
+
+    @Test
+    public final void testLabeledIndex() {
+        final DataFrame<Object> df = new DataFrame<>("value");
+        for (int i = 0; i < 10000; i++) {
+            df.append(String.format("row%d", i), Arrays.<Object>asList(i));
+        }
+        for (int i = 0; i < 10000; i += 7) {
+            assertEquals(i, df.get(String.format("row%d", i), "value"));
+        }
+        assertArrayEquals(
+                "slice is correct",
+                new Object[] { 5000, 5001, 5002 },
+                df.slice("row5000", "row5003").toArray()
+            );
+    }
+
+    @Test
+    public final void testNullName() {
+        final DataFrame<Object> df = new DataFrame<>("value");
+        df.append(null, Arrays.<Object>asList(1));
+        df.append("two", Arrays.<Object>asList(2));
+        assertEquals(1, df.get(null, "value"));
+        assertEquals(2, df.get("two", "value"));
+    }
 }
@@ -18,8 +18,20 @@
 
 package joinery;
 
+import static joinery.ParallelTestUtils.parallel;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import joinery.DataFrame.AsofDirection;
+import joinery.DataFrame.JoinIndex;
 import joinery.DataFrame.JoinType;
+import joinery.DataFrame.KeyFunction;
+import joinery.impl.Combining;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -320,4 +332,350 @@ public class DataFrameCombiningTest {
                 left.concat(right).toArray()
             );
     }
+
+    @Test
+    public void testConcatModifyInput() {
+        final DataFrame<Object> combined = left.concat(right);
+        left.set(0, 0, 99L);
+        right.append(Arrays.<Object>asList(5L, "c", 50.0));
+        assertArrayEquals(
+                new Object[] { 1L, 2L, 3L, 1L, 2L, 4L },
+                combined.col(0).toArray()
+            );
+        assertEquals(6, combined.length());
+    }
+
+    @Test
+    public void testConcatModifyResult() {
+        final Object[] expected = right.toArray();
+        final DataFrame<Object> combined = left.concat(right);
+        combined.set(3, 1, "z");
+        combined.set(4, 3, "y");
+        combined.append(Arrays.<Object>asList(5L, "x", 50.0, "c"));
+        assertArrayEquals(
+                new Object[] { "a", "a", "a", "z", null, null, "x" },
+                combined.col(1).toArray()
+            );
+        assertArrayEquals(
+                new Object[] { null, null, null, "b", "y", "b", "c" },
+                combined.col(3).toArray()
+            );
+        assertArrayEquals(expected, right.toArray());
+    }
+
+    @Test
+    public void testConcatNested() {
+        final DataFrame<Object> combined = left.concat(right).concat(left, right.concat(left));
+        assertEquals(15, combined.length());
+        assertArrayEquals(
+                new Object[] { 1L, 2L, 3L, 1L, 2L, 4L, 1L, 2L, 3L, 1L, 2L, 4L, 1L, 2L, 3L },
+                combined.col(0).toArray()
+            );
+        assertArrayEquals(
+                combined.toArray(),
+                combined.reshape(combined.length(), combined.size()).toArray()
+            );
+        assertEquals(4, combined.groupBy(0).count().length());
+    }
+
+    private static DataFrame<Object> frame(final String name, final Object ... values) {
+        final DataFrame<Object> df = new DataFrame<>("k", name);
+        for (int i = 0; i < values.length; i += 2) {
+            df.append(Arrays.asList(values[i], values[i + 1]));
+        }
+        return df;
+    }
+
+    @Test
+    public void testJoinOnDuplicates() {
+        final DataFrame<Object> left = frame("a", "x", 1, "y", 2, "x", 3, "z", 4);
+        final DataFrame<Object> right = frame("b", "x", 10, "x", 20, "y", 30, "w", 40);
+        final DataFrame<Object> joined = left.joinOn(right, JoinType.INNER, "k");
+        assertArrayEquals(
+                new Object[] { 1, 1, 2, 3, 3 },
+                joined.col("a").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 10, 20, 30, 10, 20 },
+                joined.col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 0, 1, 2, 3, 4 },
+                joined.index().toArray()
+            );
+    }
+
+    @Test
+    public void testJoinOnUniqueKeys() {
+        final DataFrame<Object> left = frame("a", "x", 1, "y", 2, "z", 3);
+        final DataFrame<Object> right = frame("b", "y", 20, "w", 40);
+        final DataFrame<Object> joined = left.joinOn(right, JoinType.OUTER, "k");
+        assertArrayEquals(
+                new Object[] {
+                    Arrays.asList("x"), Arrays.asList("y"), Arrays.asList("z"), Arrays.asList("w")
+                },
+                joined.index().toArray()
+            );
+        assertEquals(40, joined.get(Arrays.asList("w"), "b"));
+    }
+
+    @Test
+    public void testJoinOnDuplicatesOuter() {
+        final DataFrame<Object> left = frame("a", "x", 1, "y", 2, "x", 3, "z", 4);
+        final DataFrame<Object> right = frame("b", "x", 10, "x", 20, "y", 30, "w", 40, "v", 50);
+        final DataFrame<Object> joined = left.joinOn(right, JoinType.OUTER, "k");
+        assertArrayEquals(
+                new Object[] { "x", "x", "y", "x", "x", "z", null, null },
+                joined.col("k_left").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 10, 20, 30, 10, 20, null, 40, 50 },
+                joined.col("b").toArray()
+            );
+    }
+
+    @Test
+    public void testJoinOnDuplicatesRight() {
+        final DataFrame<Object> left = frame("a", "x", 1, "y", 2, "x", 3);
+        final DataFrame<Object> right = frame("b", "x", 10, "x", 20, "y", 30, "w", 40);
+        final DataFrame<Object> joined = left.joinOn(right, JoinType.RIGHT, "k");
+        assertArrayEquals(
+                new Object[] { 10, 10, 20, 20, 30, 40 },
+                joined.col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 1, 3, 1, 3, 2, null },
+                joined.col("a").toArray()
+            );
+    }
+
+    @Test
+    public void testJoinSortedOn() {
+        final Random random = new Random(17);
+        final DataFrame<Object> left = new DataFrame<>("k", "a");
+        final DataFrame<Object> right = new DataFrame<>("k", "b");
+        for (int r = 0; r < 200; r++) {
+            left.append(Arrays.<Object>asList((long)random.nextInt(50), r));
+            right.append(Arrays.<Object>asList((long)random.nextInt(60), r));
+        }
+        final DataFrame<Object> sortedLeft = left.sortBy("k");
+        final DataFrame<Object> sortedRight = right.sortBy("k").head(150);
+        final KeyFunction<Object> key = new KeyFunction<Object>() {
+            @Override
+            public Object apply(final List<Object> values) {
+                return Arrays.asList(values.get(0));
+            }
+        };
+
+        for (final JoinType how : JoinType.values()) {
+            final DataFrame<Object> hashed = sortedLeft.join(sortedRight, how, key);
+            final DataFrame<Object> merged = sortedLeft.joinSortedOn(sortedRight, how, "k");
+            assertArrayEquals(how.toString(), hashed.toArray(), merged.toArray());
+            assertArrayEquals(how.toString(), hashed.index().toArray(), merged.index().toArray());
+            assertArrayEquals(how.toString(), hashed.toArray(), sortedLeft.joinOn(sortedRight, how, "k").toArray());
+        }
+    }
+
+    @Test
+    public void testJoinOnForgetsSortOrder() {
+        final Random random = new Random(23);
+        final DataFrame<Object> left = new DataFrame<>("k", "a");
+        final DataFrame<Object> right = new DataFrame<>("k", "b");
+        for (int r = 0; r < 200; r++) {
+            left.append(Arrays.<Object>asList((long)random.nextInt(50), r));
+            right.append(Arrays.<Object>asList((long)random.nextInt(60), r));
+        }
+        final DataFrame<Object> sortedLeft = left.sortBy("k");
+        final DataFrame<Object> sortedRight = right.sortBy("-k");
+        final DataFrame<Object> modifiedRight = right.sortBy("k");
+        modifiedRight.set(0, 0, 100L);
+        final KeyFunction<Object> key = new KeyFunction<Object>() {
+            @Override
+            public Object apply(final List<Object> values) {
+                return Arrays.asList(values.get(0));
+            }
+        };
+
+        for (final JoinType how : JoinType.values()) {
+            assertArrayEquals(how.toString(),
+                    sortedLeft.join(sortedRight, how, key).toArray(),
+                    sortedLeft.joinOn(sortedRight, how, "k").toArray());
+            assertArrayEquals(how.toString(),
+                    sortedLeft.join(modifiedRight, how, key).toArray(),
+                    sortedLeft.joinOn(modifiedRight, how, "k").toArray());
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testJoinSortedOnUnsorted() {
+        final DataFrame<Object> left = frame("a", "y", 1, "x", 2);
+        final DataFrame<Object> right = frame("b", "x", 10, "y", 20);
+        left.joinSortedOn(right, JoinType.INNER, "k");
+    }
+
+    @Test
+    public void testParallelJoinOn()
+    throws Exception {
+        final Random random = new Random(19);
+        final DataFrame<Object> left = new DataFrame<>("k1", "k2", "a");
+        final DataFrame<Object> right = new DataFrame<>("k1", "k2", "b");
+        for (int r = 0; r < 3000; r++) {
+            left.append(Arrays.<Object>asList(random.nextInt(40), random.nextBoolean() ? "x" : null, r));
+        }
+        for (int r = 0; r < 2000; r++) {
+            right.append(Arrays.<Object>asList(random.nextInt(50), random.nextBoolean() ? "x" : null, r));
+        }
+
+        for (final JoinType how : JoinType.values()) {
+            final DataFrame<Object> serial = left.joinOn(right, how, "k1", "k2");
+            final DataFrame<Object> parallel = parallel(100, () -> left.joinOn(right, how, "k1", "k2"));
+            assertArrayEquals(how.toString(), serial.toArray(), parallel.toArray());
+            assertArrayEquals(how.toString(), serial.index().toArray(), parallel.index().toArray());
+        }
+    }
+
+    @Test
+    public void testJoinAsof() {
+        final Random random = new Random(23);
+        final DataFrame<Object> left = new DataFrame<>("g", "t", "a");
+        final DataFrame<Object> right = new DataFrame<>("g", "t", "b");
+        for (int r = 0; r < 300; r++) {
+            left.append(Arrays.<Object>asList(random.nextInt(3), (long)random.nextInt(100), r));
+            right.append(Arrays.<Object>asList(random.nextInt(4), (long)random.nextInt(100), r));
+        }
+
+        for (final AsofDirection direction : AsofDirection.values()) {
+            final DataFrame<Object> joined = left.joinAsof(right, "t", new Object[] { "g" }, direction, 5);
+            assertEquals(left.length(), joined.length());
+            for (int r = 0; r < left.length(); r++) {
+                final long t = Long.class.cast(left.get(r, 1));
+                // last of the closest preceding, first of the closest following
+                int backward = -1;
+                int forward = -1;
+                for (int s = 0; s < right.length(); s++) {
+                    final long u = Long.class.cast(right.get(s, 1));
+                    if (left.get(r, 0).equals(right.get(s, 0))) {
+                        if (u <= t && (backward < 0 || u >= Long.class.cast(right.get(backward, 1)))) {
+                            backward = s;
+                        }
+                        if (u >= t && (forward < 0 || u < Long.class.cast(right.get(forward, 1)))) {
+                            forward = s;
+                        }
+                    }
+                }
+                final long db = backward < 0 ? Long.MAX_VALUE : t - Long.class.cast(right.get(backward, 1));
+                final long df = forward < 0 ? Long.MAX_VALUE : Long.class.cast(right.get(forward, 1)) - t;
+                final int match =
+                        direction == AsofDirection.BACKWARD ? backward :
+                        direction == AsofDirection.FORWARD ? forward :
+                        db <= df ? backward : forward;
+                final long distance = match == backward ? db : df;
+                final Object expected = match >= 0 && distance <= 5 ? right.get(match, 2) : null;
+                assertEquals(direction + " row " + r, expected, joined.get(r, "b"));
+            }
+        }
+    }
+
+    @Test
+    public void testJoinAsofDates() {
+        final DataFrame<Object> left = new DataFrame<>("date", "a");
+        left.append(Arrays.<Object>asList(new Date(1500), 1));
+        left.append(Arrays.<Object>asList(null, 2));
+        left.append(Arrays.<Object>asList(new Date(500), 3));
+        final DataFrame<Object> right = new DataFrame<>("date", "b");
+        right.append(Arrays.<Object>asList(new Date(2000), 10));
+        right.append(Arrays.<Object>asList(new Date(1000), 20));
+        assertArrayEquals(
+                new Object[] { 10, null, 20 },
+                left.joinAsof(right, "date", new Object[0], AsofDirection.FORWARD, null).col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 20, null, null },
+                left.joinAsof(right, "date").col("b").toArray()
+            );
+    }
+
+    @Test
+    public void testSemiJoin() {
+        final DataFrame<Object> left = frame("a", "x", 1, "y", 2, null, 3, "x", 4, "z", 5);
+        final DataFrame<Object> keys = new DataFrame<>("k");
+        keys.append(Arrays.<Object>asList("x"));
+        keys.append(Arrays.<Object>asList("x"));
+        keys.append(Arrays.<Object>asList("z"));
+        assertArrayEquals(
+                new Object[] { 1, 4, 5 },
+                left.semiJoin(keys, "k").col("a").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 0, 3, 4 },
+                left.semiJoin(keys, "k").index().toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 2, 3 },
+                left.antiJoin(keys, "k").col("a").toArray()
+            );
+    }
+
+    @Test
+    public void testSemiJoinPrefilter() {
+        final Random random = new Random(29);
+        final DataFrame<Object> left = new DataFrame<>("k", "a");
+        final DataFrame<Object> right = new DataFrame<>("k", "b");
+        for (int r = 0; r < 5000; r++) {
+            left.append(Arrays.<Object>asList((long)random.nextInt(100000), r));
+        }
+        for (int r = 0; r < 1000; r++) {
+            right.append(Arrays.<Object>asList((long)random.nextInt(100000), r));
+        }
+
+        final int threshold = Combining.getPrefilterThreshold();
+        final DataFrame<Object> semi = left.semiJoin(right, 0);
+        final DataFrame<Object> anti = left.antiJoin(right, 0);
+        try {
+            Combining.setPrefilterThreshold(0);
+            assertArrayEquals(semi.toArray(), left.semiJoin(right, 0).toArray());
+            assertArrayEquals(anti.toArray(), left.antiJoin(right, 0).toArray());
+        } finally {
+            Combining.setPrefilterThreshold(threshold);
+        }
+        assertEquals(left.length(), semi.length() + anti.length());
+        assertEquals(semi.length(), left.joinOn(right.unique("k").retain("k"), JoinType.INNER, 0).length());
+    }
+
+    @Test
+    public void testJoinIndex() {
+        final Random random = new Random(31);
+        final DataFrame<Object> right = new DataFrame<>("k", "b");
+        for (int r = 0; r < 300; r++) {
+            right.append(Arrays.<Object>asList((long)random.nextInt(80), r));
+        }
+        final JoinIndex<Object> index = right.joinIndex("k");
+
+        for (int probe = 0; probe < 3; probe++) {
+            final DataFrame<Object> left = new DataFrame<>("k", "a");
+            for (int r = 0; r < 100 + probe * 50; r++) {
+                left.append(Arrays.<Object>asList((long)random.nextInt(100), r));
+            }
+            for (final JoinType how : JoinType.values()) {
+                final DataFrame<Object> expected = left.joinOn(right, how, "k");
+                final DataFrame<Object> joined = left.join(index, how);
+                assertArrayEquals(how.toString(), expected.toArray(), joined.toArray());
+                assertArrayEquals(how.toString(), expected.index().toArray(), joined.index().toArray());
+                assertArrayEquals(how.toString(), expected.columns().toArray(), joined.columns().toArray());
+            }
+        }
+    }
+
+    @Test
+    public void testJoinIndexUnchanged() {
+        final DataFrame<Object> right = frame("b", "x", 10, "y", 20);
+        final JoinIndex<Object> index = right.joinIndex("k");
+        right.set(0, 1, 99);
+        right.append(Arrays.<Object>asList("z", 30));
+        final DataFrame<Object> joined = frame("a", "z", 1, "x", 2).join(index);
+        assertArrayEquals(
+                new Object[] { null, 10 },
+                joined.col("b").toArray()
+            );
+    }
 }
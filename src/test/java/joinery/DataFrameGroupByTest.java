@@ -18,16 +18,20 @@
 
 package joinery;
 
+import static joinery.ParallelTestUtils.parallel;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import joinery.DataFrame.Aggregate;
 import joinery.DataFrame.KeyFunction;
+import joinery.impl.Aggregation;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -161,4 +165,107 @@ public class DataFrameGroupByTest {
                 }).sum().toArray()
             );
     }
+
+    @Test
+    public void testGroupByMultipleColumns() {
+        final DataFrame<Object> df = new DataFrame<>();
+        df.add("a", Arrays.<Object>asList(1L, 2L, 1L, 2L, 1L, null));
+        df.add("b", Arrays.<Object>asList("x", "x", "y", "x", "x", null));
+        df.add("c", Arrays.<Object>asList(1.0, 2.0, 3.0, 4.0, 5.0, 6.0));
+        final DataFrame<Object> grouped = df.groupBy("a", "b").sum();
+        assertArrayEquals(
+                new Object[] {
+                    Arrays.asList(1L, "x"), Arrays.asList(2L, "x"),
+                    Arrays.asList(1L, "y"), Arrays.asList(null, null)
+                },
+                grouped.index().toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 6.0, 6.0, 3.0, 6.0 },
+                grouped.col("c").toArray()
+            );
+    }
+
+    @Test
+    public void testGroupByNullKey() {
+        final DataFrame<Object> df = new DataFrame<>();
+        df.add("a", Arrays.<Object>asList(null, 1.5, null, 1.5, 2.5));
+        df.add("b", Arrays.<Object>asList(1, 2, 3, 4, 5));
+        final DataFrame<Object> grouped = df.groupBy("a").cumsum();
+        assertArrayEquals(
+                new Object[] { 1.0, 4.0, 2.0, 6.0, 5.0 },
+                grouped.col("b").toArray()
+            );
+    }
+
+    @Test
+    public void testAgg() {
+        final Map<Object, List<Aggregate<Object, ?>>> aggregates = new LinkedHashMap<>();
+        aggregates.put("c", Arrays.<Aggregate<Object, ?>>asList(
+                new Aggregation.Sum<Object>(),
+                new Aggregation.Count<Object>()
+            ));
+        aggregates.put("d", Arrays.<Aggregate<Object, ?>>asList(
+                new Aggregation.Max<Object>(),
+                new Aggregation.Percentile<Object>(25),
+                new Aggregation.Percentile<Object>(75)
+            ));
+        final DataFrame<Object> grouped = df.groupBy("b").agg(aggregates);
+        assertArrayEquals(
+                new Object[] {
+                    "b",
+                    Arrays.asList("c", "sum"),
+                    Arrays.asList("c", "count"),
+                    Arrays.asList("d", "max"),
+                    Arrays.asList("d", "percentile"),
+                    Arrays.asList("d", "percentile_1")
+                },
+                grouped.columns().toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "one", "two", "three" },
+                grouped.index().toArray()
+            );
+        assertEquals(df.groupBy("b").sum().col("c"), grouped.col(Arrays.asList("c", "sum")));
+        assertEquals(df.groupBy("b").count().col("c"), grouped.col(Arrays.asList("c", "count")));
+        assertEquals(df.groupBy("b").max().col("d"), grouped.col(Arrays.asList("d", "max")));
+    }
+
+    @Test
+    public void testAggUngrouped() {
+        final Map<Object, List<Aggregate<Object, ?>>> aggregates = new LinkedHashMap<>();
+        aggregates.put("c", Arrays.<Aggregate<Object, ?>>asList(
+                new Aggregation.Sum<Object>(),
+                new Aggregation.Mean<Object>()
+            ));
+        final DataFrame<Object> result = df.agg(aggregates);
+        assertEquals(1, result.length());
+        assertEquals(df.sum().get(0, "c"), result.get(0, Arrays.asList("c", "sum")));
+        assertEquals(df.mean().get(0, "c"), result.get(0, Arrays.asList("c", "mean")));
+    }
+
+    @Test
+    public void testParallelGroupBy()
+    throws Exception {
+        final Random random = new Random(42);
+        final DataFrame<Object> df = new DataFrame<>("a", "b", "c", "d");
+        for (int r = 0; r < 5000; r++) {
+            df.append(Arrays.<Object>asList(
+                    "key" + random.nextInt(50),
+                    random.nextInt(10) == 0 ? null : (long)random.nextInt(7),
+                    random.nextGaussian(),
+                    random.nextInt(1000)
+                ));
+        }
+
+        final DataFrame<Object> serial = df.groupBy("a", "b").mean();
+        final DataFrame<Object> single = df.groupBy("b").var();
+        final DataFrame<Object> parallel = parallel(8, () -> df.groupBy("a", "b").mean());
+        final DataFrame<Object> parallelSingle = parallel(8, () -> df.groupBy("b").var());
+
+        assertArrayEquals(serial.index().toArray(), parallel.index().toArray());
+        assertArrayEquals(serial.toArray(), parallel.toArray());
+        assertArrayEquals(single.index().toArray(), parallelSingle.index().toArray());
+        assertArrayEquals(single.toArray(), parallelSingle.toArray());
+    }
 }
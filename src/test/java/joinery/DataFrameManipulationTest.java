@@ -144,4 +144,47 @@ public class DataFrameManipulationTest {
           .append("one", Collections.emptyList())
           .append("one", Collections.emptyList());
     }
+
+    @Test
+    public final void testBuilder() {
+        final DataFrame.Builder<Object> builder = new DataFrame.Builder<>(Arrays.asList("name", "value"), 4);
+        builder.append(Arrays.<Object>asList("alpha", 1))
+               .appendAll(Arrays.asList(
+                    Arrays.<Object>asList("bravo", 2),
+                    Arrays.<Object>asList("charlie")
+               ));
+        final DataFrame<Object> df = builder.build();
+        assertArrayEquals(
+                "index is correct",
+                new Object[] { 0, 1, 2 },
+                df.index().toArray()
+            );
+        assertArrayEquals(
+                "column values are correct",
+                new Object[] { 1, 2, null },
+                df.col("value").toArray()
+            );
+    }
+
+    @Test
+    public final void testBuilderWithNames() {
+        final DataFrame<Object> df = new DataFrame.Builder<>(Arrays.asList("value"))
+                .append(Arrays.<Object>asList(1))
+                .append("two", Arrays.<Object>asList(2))
+                .build();
+        assertArrayEquals(
+                "index is correct",
+                new Object[] { 0, "two" },
+                df.index().toArray()
+            );
+        assertEquals(2, df.get("two", "value"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public final void testBuilderDuplicateNames() {
+        new DataFrame.Builder<>(Arrays.asList("value"))
+            .append("one", Arrays.<Object>asList(1))
+            .append("one", Arrays.<Object>asList(2))
+            .build();
+    }
 }
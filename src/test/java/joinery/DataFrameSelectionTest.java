@@ -18,6 +18,8 @@
 
 package joinery;
 
+import static joinery.Filters.col;
+import static joinery.ParallelTestUtils.parallel;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -25,9 +27,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 
 import joinery.DataFrame.Axis;
+import joinery.Filters.Filter;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -110,6 +114,76 @@ public class DataFrameSelectionTest {
             );
     }
 
+    @Test
+    public void testSliceGetByName() {
+        assertEquals(
+                150,
+                df.slice(15, 17).get("row15", "value")
+            );
+    }
+
+    @Test
+    public void testSlicePositionalIndex() {
+        final DataFrame<Object> sliced = df.resetIndex().slice(5, 8);
+        assertArrayEquals(
+                new Object[] { 5, 6, 7 },
+                sliced.index().toArray()
+            );
+        assertEquals(
+                70,
+                sliced.get(7, "value")
+            );
+    }
+
+    @Test
+    public void testTailPositionalIndex() {
+        final DataFrame<Object> tail = df.resetIndex().tail(2);
+        assertArrayEquals(
+                new Object[] { 18, 19 },
+                tail.index().toArray()
+            );
+        assertEquals(
+                190,
+                tail.get(19, "value")
+            );
+    }
+
+    @Test
+    public void testSortSlicePositionalIndex() {
+        final DataFrame<Object> sorted = df.resetIndex().slice(5, 9).sortBy("-value");
+        assertArrayEquals(
+                new Object[] { 8, 7, 6, 5 },
+                sorted.index().toArray()
+            );
+        assertEquals(
+                50,
+                sorted.get(5, "value")
+            );
+        assertEquals(
+                Arrays.asList(false, true),
+                Arrays.asList(sorted.index().contains(4), sorted.index().contains(8))
+            );
+    }
+
+    @Test
+    public void testSelectPositionalIndex() {
+        final DataFrame<Object> selected = df.resetIndex()
+                .select(new DataFrame.Predicate<Object>() {
+                    @Override
+                    public Boolean apply(final List<Object> row) {
+                        return Integer.class.cast(row.get(1)) % 50 == 0;
+                    }
+                });
+        assertArrayEquals(
+                new Object[] { 0, 5, 10, 15 },
+                selected.index().toArray()
+            );
+        assertEquals(
+                100,
+                selected.get(10, "value")
+            );
+    }
+
     @Test
     public void testDropNaRows() {
         df = new DataFrame<Object>()
@@ -133,4 +207,136 @@ public class DataFrameSelectionTest {
                 df.dropna(Axis.COLUMNS).toArray()
             );
     }
+
+    @Test
+    public void testSelectFilter() {
+        assertArrayEquals(
+                new String[] { "row15" },
+                df.select(col("value").eq(150)).index().toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 30, 40, 50, 190 },
+                df.select(col("value").between(30L, 50.0).or(col("value").gt(180))).col("value").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 0, 10 },
+                df.select(col("value").lt(20.5).and(col("value").in(0, 10, 70)))
+                    .col("value").toArray()
+            );
+        assertEquals(0, df.select(col("name").eq(150)).length());
+        assertEquals(20, df.select(col("name").ne(150)).length());
+    }
+
+    @Test
+    public void testSelectFilterNulls() {
+        df = new DataFrame<Object>("a", "b")
+                    .append(Arrays.<Object>asList(1.0, "x"))
+                    .append(Arrays.<Object>asList(null, "y"))
+                    .append(Arrays.<Object>asList(3.0, null));
+        assertArrayEquals(
+                new Object[] { 1.0, 3.0 },
+                df.select(col("a").ne(2)).col("a").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "y" },
+                df.select(col("a").isNull()).col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "x", "y" },
+                df.select(col("b").notNull()).col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 3.0 },
+                df.select(col("a").lt(2).not()).col("a").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "x", "y" },
+                df.select(col("b").isNull().not()).col("b").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "x" },
+                df.select(col("a").gt(2).or(col("b").eq("y")).not()).col("b").toArray()
+            );
+    }
+
+    @Test
+    public void testSelectFilterNotNaN() {
+        df = new DataFrame<Object>("a")
+                    .append(Arrays.<Object>asList(1.0))
+                    .append(Arrays.<Object>asList(Double.NaN))
+                    .append(Arrays.<Object>asList(3.0));
+        assertArrayEquals(
+                new Object[] { 1.0 },
+                df.select(col("a").le(2)).col("a").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { 1.0, Double.NaN },
+                df.select(col("a").gt(2).not()).col("a").toArray()
+            );
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSelectFilterNullValue() {
+        df.select(col("value").eq(null));
+    }
+
+    @Test
+    public void testSelectFilterMatchesPredicate()
+    throws Exception {
+        final Random random = new Random(37);
+        final DataFrame<Object> first = new DataFrame<>("a", "b", "c");
+        final DataFrame<Object> second = new DataFrame<>("a", "b", "c");
+        for (int r = 0; r < 3000; r++) {
+            (r < 1000 ? first : second).append(Arrays.<Object>asList(
+                    random.nextInt(10) == 0 ? null : (long)random.nextInt(100),
+                    random.nextDouble() * 100,
+                    "s" + random.nextInt(5)
+                ));
+        }
+        final DataFrame<Object> data = first.concat(second);
+        final Filter filter = col("a").ge(25).and(col("b").lt(50.5))
+                .or(col("c").eq("s3").and(col("a").isNull().not()));
+        final DataFrame.Predicate<Object> predicate = new DataFrame.Predicate<Object>() {
+            @Override
+            public Boolean apply(final List<Object> row) {
+                final Long a = Long.class.cast(row.get(0));
+                final double b = Double.class.cast(row.get(1));
+                return a != null && a >= 25 && b < 50.5 || "s3".equals(row.get(2)) && a != null;
+            }
+        };
+
+        assertArrayEquals(data.select(predicate).toArray(), parallel(100, () -> data.select(filter)).toArray());
+        assertArrayEquals(data.select(predicate).toArray(), data.select(filter).toArray());
+    }
+
+    @Test
+    public void testSelectFilterOrdered() {
+        // appended in order so most chunks are skipped
+        final DataFrame<Object> data = new DataFrame<>("ts", "value");
+        for (int r = 0; r < 20000; r++) {
+            data.append(Arrays.<Object>asList(
+                    r % 5000 == 7 ? null : (long)r,
+                    r % 3000 == 11 ? Double.NaN : r / 2.0
+                ));
+        }
+        for (final long ts : new long[] { -1, 0, 4095, 4096, 12345, 19999, 20000 }) {
+            final List<Object> expected = new ArrayList<>();
+            for (int r = 0; r < data.length(); r++) {
+                final Long value = Long.class.cast(data.get(r, 0));
+                if (value != null && value > ts) {
+                    expected.add(value);
+                }
+            }
+            assertEquals(expected, data.select(col("ts").gt(ts)).col("ts"));
+            assertEquals(expected, data.select(col("ts").ge(ts + 1)).col("ts"));
+            assertEquals(expected.isEmpty() ? 0 : 1, data.select(col("ts").eq(ts + 1)).length());
+        }
+        assertEquals(2, data.select(col("value").lt(1.0)).length());
+        // NaN is only ever not equal
+        assertEquals(20000 - 7, data.select(col("value").ge(0)).length());
+        assertEquals(20000, data.select(col("value").ne(-1)).length());
+
+        data.set(1, 0, 30000L);
+        assertEquals(Arrays.<Object>asList(30000L), data.select(col("ts").gt(20000)).col("ts"));
+    }
 }
@@ -18,11 +18,23 @@
 
 package joinery;
 
+import static joinery.ParallelTestUtils.parallel;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import joinery.DataFrame.SortDirection;
+import joinery.impl.ExternalSorting;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -101,4 +113,280 @@ public class DataFrameSortByTest {
                 sorted.col(1).toArray()
             );
     }
+
+    @Test
+    public final void testSortByMultiple() {
+        final DataFrame<Object> sorted = df.sortBy("name", "-value");
+        assertArrayEquals(
+                "names are sorted",
+                new Object[] { "four", "one", "one", "three", "two", "two" },
+                sorted.col("name").toArray()
+            );
+        for (int r = 1; r < sorted.length(); r++) {
+            if (sorted.get(r, 0).equals(sorted.get(r - 1, 0))) {
+                assertEquals(
+                        "ties are sorted by value descending",
+                        -1,
+                        Integer.signum(Integer.class.cast(sorted.get(r, 1)).compareTo(Integer.class.cast(sorted.get(r - 1, 1))))
+                    );
+            }
+        }
+    }
+
+    @Test
+    public final void testSortByDoubles() {
+        final DataFrame<Object> df = new DataFrame<>("value");
+        for (final double value : new double[] { 1.5, Double.NaN, -0.0, Double.NEGATIVE_INFINITY, 0.0, -2.5 }) {
+            df.append(Arrays.<Object>asList(value));
+        }
+        assertArrayEquals(
+                new Object[] { Double.NEGATIVE_INFINITY, -2.5, -0.0, 0.0, 1.5, Double.NaN },
+                df.sortBy("value").col("value").toArray()
+            );
+        assertArrayEquals(
+                new Object[] { Double.NaN, 1.5, 0.0, -0.0, -2.5, Double.NEGATIVE_INFINITY },
+                df.sortBy("-value").col("value").toArray()
+            );
+    }
+
+    @Test
+    public final void testSortByDates() {
+        final DataFrame<Object> df = new DataFrame<>("date", "value");
+        df.append(Arrays.<Object>asList(new Date(2000), 1));
+        df.append(Arrays.<Object>asList(new Date(-1000), 2));
+        df.append(Arrays.<Object>asList(new Date(1000), 3));
+        df.append(Arrays.<Object>asList(new Date(1000), 4));
+        assertArrayEquals(
+                new Object[] { 2, 3, 4, 1 },
+                df.sortBy("date").col("value").toArray()
+            );
+    }
+
+    @Test
+    public final void testSortByIndex() {
+        final DataFrame<Object> sorted = df.sortBy("value");
+        for (int r = 0; r < df.length(); r++) {
+            assertEquals(
+                    "rows keep their labels",
+                    df.get(r, 1),
+                    sorted.get(r, "value")
+                );
+        }
+
+        sorted.append(Arrays.<Object>asList("seven", 7));
+        assertEquals(7, sorted.get(6, "value"));
+        assertEquals(7, sorted.length());
+    }
+
+    @Test
+    public final void testArgsort() {
+        final int[] rows = df.argsort("-value");
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(6 - i, df.get(rows[i], 1));
+        }
+    }
+
+    @Test
+    public final void testTake() {
+        final DataFrame<Object> taken = df.take(new int[] { 4, 0, 1 });
+        assertArrayEquals(
+                new Object[] { 4, 0, 1 },
+                taken.index().toArray()
+            );
+        assertArrayEquals(
+                new Object[] { "one", "one", "two" },
+                taken.col("name").toArray()
+            );
+    }
+
+    @Test
+    public final void testParallelSort()
+    throws Exception {
+        final Random random = new Random(11);
+        final DataFrame<Object> df = new DataFrame<>("a", "b", "c");
+        for (int r = 0; r < 10000; r++) {
+            df.append(Arrays.<Object>asList(random.nextInt(10), random.nextInt(4) * 0.5, (long)random.nextInt(100)));
+        }
+
+        final int[] serial = df.argsort("a", "-b", "c");
+        assertArrayEquals(serial, parallel(100, () -> df.argsort("a", "-b", "c")));
+    }
+
+    @Test
+    public final void testNlargest() {
+        final DataFrame<Object> top = df.nlargest(3, "value");
+        assertArrayEquals(
+                new Object[] { 6, 5, 4 },
+                top.col("value").toArray()
+            );
+        assertArrayEquals(
+                df.sortBy("-value").head(3).index().toArray(),
+                top.index().toArray()
+            );
+    }
+
+    @Test
+    public final void testNsmallestGrouped() {
+        final DataFrame<Object> df = new DataFrame<>("name", "value");
+        df.append(Arrays.<Object>asList("one", 3.0));
+        df.append(Arrays.<Object>asList("two", 1.0));
+        df.append(Arrays.<Object>asList("one", 1.0));
+        df.append(Arrays.<Object>asList("one", 2.0));
+        df.append(Arrays.<Object>asList("two", 1.0));
+        df.append(Arrays.<Object>asList("two", 0.5));
+        final DataFrame<Object> bottom = df.groupBy("name").nsmallest(2, "value");
+        assertArrayEquals(
+                new Object[] { 2, 3, 5, 1 },
+                bottom.index().toArray()
+            );
+    }
+
+    @Test
+    public final void testExternalSort()
+    throws Exception {
+        final Random random = new Random(13);
+        final DataFrame<Object> df = new DataFrame<>("a", "b", "c");
+        for (int r = 0; r < 5000; r++) {
+            df.append(Arrays.<Object>asList(
+                    random.nextInt(10), random.nextInt(4) * 0.5,
+                    random.nextBoolean() ? "r" + r : null));
+        }
+
+        final Map<Integer, SortDirection> cols = new LinkedHashMap<>();
+        cols.put(0, SortDirection.ASCENDING);
+        cols.put(1, SortDirection.DESCENDING);
+        final DataFrame<Object> sorted;
+        try (ExternalSorting<Object> sorter = new ExternalSorting<>(df.columns(), cols, 1 << 12)) {
+            for (final List<Object> row : df) {
+                sorter.append(row);
+            }
+            assertEquals(true, sorter.runs() > 64);
+            sorted = sorter.build();
+        }
+
+        final DataFrame<Object> expected = df.sortBy("a", "-b");
+        assertEquals(expected.length(), sorted.length());
+        for (int c = 0; c < df.size(); c++) {
+            assertArrayEquals(
+                    expected.col(c).toArray(),
+                    sorted.col(c).toArray()
+                );
+        }
+    }
+
+    @Test
+    public final void testExternalSortInMemory()
+    throws Exception {
+        final Map<Integer, SortDirection> cols = new LinkedHashMap<>();
+        cols.put(1, SortDirection.DESCENDING);
+        try (ExternalSorting<Object> sorter = new ExternalSorting<>(df.columns(), cols, 1L << 20)) {
+            for (final List<Object> row : df) {
+                sorter.append(row);
+            }
+            assertEquals(0, sorter.runs());
+            assertArrayEquals(
+                    new Object[] { 6, 5, 4, 3, 2, 1 },
+                    sorter.build().col("value").toArray()
+                );
+        }
+    }
+
+    @Test
+    public final void testExternalSortRemovesRuns()
+    throws Exception {
+        final File dir = Files.createTempDirectory(getClass().getName()).toFile();
+        dir.deleteOnExit();
+        final Map<Integer, SortDirection> cols = new LinkedHashMap<>();
+        cols.put(0, SortDirection.ASCENDING);
+        try (ExternalSorting<Object> sorter = new ExternalSorting<>(Arrays.asList("a", "b"), cols, 1 << 10, dir)) {
+            for (int r = 0; r < 1000; r++) {
+                sorter.append(Arrays.<Object>asList(r % 7, "r" + r));
+            }
+            assertEquals(true, sorter.runs() > 0);
+            sorter.build();
+        }
+        assertEquals(0, dir.list().length);
+
+        // runs that can not be compared fail while merging
+        final ExternalSorting<Object> sorter = new ExternalSorting<>(Arrays.asList("a", "b"), cols, 1 << 10, dir);
+        try {
+            // switch to strings right after a run is written
+            int runs = -1;
+            for (int r = 0; r < 5000 || sorter.runs() == runs; r++) {
+                runs = sorter.runs();
+                sorter.append(Arrays.<Object>asList(r, r));
+            }
+            for (int r = 0; r < 5000; r++) {
+                sorter.append(Arrays.<Object>asList("r" + r, r));
+            }
+            assertEquals(true, sorter.runs() > 64);
+            sorter.build();
+            fail("merging integers with strings should fail");
+        } catch (final ClassCastException expected) {
+            // the partially merged runs are removed
+        } finally {
+            sorter.close();
+        }
+        assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+
+    @Test
+    public final void testSortCsv()
+    throws Exception {
+        final Random random = new Random(17);
+        final DataFrame<Object> df = new DataFrame<>("a", "b", "c");
+        for (int r = 0; r < 10000; r++) {
+            // b only has fractions after the first batch of rows
+            df.append(Arrays.<Object>asList(
+                    random.nextInt(10), r < 9000 ? random.nextInt(4) : random.nextInt(4) * 0.5,
+                    random.nextBoolean() ? "r" + r : null));
+        }
+        final File input = File.createTempFile(getClass().getName(), ".csv");
+        final File output = File.createTempFile(getClass().getName(), ".csv");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        df.writeCsv(input.getPath());
+
+        DataFrame.sortCsv(input.getPath(), output.getPath(), 1 << 14, "a", "-b");
+        final DataFrame<Object> expected = DataFrame.readCsv(input.getPath()).sortBy("a", "-b");
+        final DataFrame<Object> sorted = DataFrame.readCsv(output.getPath());
+        assertEquals(expected.columns(), sorted.columns());
+        assertEquals(expected.types(), sorted.types());
+        for (int c = 0; c < expected.size(); c++) {
+            assertArrayEquals(
+                    expected.col(c).toArray(),
+                    sorted.col(c).toArray()
+                );
+        }
+    }
+
+    @Test
+    public final void testSortCsvInPlace()
+    throws Exception {
+        final File file = File.createTempFile(getClass().getName(), ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("a;b", "3;x", "1;y", "2;z"));
+
+        DataFrame.sortCsv(file.getPath(), file.getPath(), ";", 1 << 14, "a");
+        assertEquals(Arrays.asList("a;b", "1;y", "2;z", "3;x"), Files.readAllLines(file.toPath()));
+        assertEquals(1, file.getParentFile().list((dir, name) -> name.startsWith(file.getName())).length);
+    }
+
+    @Test
+    public final void testSortCsvUnknownColumn()
+    throws Exception {
+        final File input = File.createTempFile(getClass().getName(), ".csv");
+        final File output = File.createTempFile(getClass().getName(), ".csv");
+        input.deleteOnExit();
+        output.deleteOnExit();
+        Files.write(input.toPath(), Arrays.asList("a,b", "1,x"));
+        Files.write(output.toPath(), Arrays.asList("unchanged"));
+        try {
+            DataFrame.sortCsv(input.getPath(), output.getPath(), 1 << 14, "c");
+            fail("sorting on a missing column should fail");
+        } catch (final IllegalArgumentException ex) {
+            assertEquals(Arrays.asList("unchanged"), Files.readAllLines(output.toPath()));
+        }
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery;
+
+import static joinery.Filters.col;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import joinery.DataFrame.Function;
+import joinery.DataFrame.NumberDefault;
+import joinery.impl.Serialization;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyFrameTest {
+    private String file;
+    private DataFrame<Object> df;
+
+    @Before
+    public void setUp()
+    throws Exception {
+        file = ClassLoader.getSystemResource("grouping.csv").getPath();
+        df = DataFrame.readCsv(file);
+    }
+
+    @Test
+    public void testCollect() {
+        final DataFrame<Object> expected = df.retain("b", "c")
+                .select(col("c").gt(20))
+                .groupBy("b")
+                .sum();
+        final DataFrame<Object> actual = LazyFrame.readCsv(file)
+                .retain("b", "c")
+                .select(col("c").gt(20))
+                .groupBy("b")
+                .sum()
+                .collect();
+        assertEquals(expected.index(), actual.index());
+        assertEquals(expected.columns(), actual.columns());
+        assertEquals(expected.col("c"), actual.col("c"));
+    }
+
+    @Test
+    public void testFilterPushedIntoCsv() {
+        assertEquals(
+                "Aggregate sum\n" +
+                "  Group [b]\n" +
+                "    Csv " + file + " [b, c] where c GT 20",
+                LazyFrame.readCsv(file)
+                    .retain("b", "c")
+                    .select(col("c").gt(20))
+                    .groupBy("b")
+                    .sum()
+                    .explain()
+            );
+    }
+
+    @Test
+    public void testFiltersCombined() {
+        final LazyFrame<Object> lazy = LazyFrame.readCsv(file)
+                .select(col("c").gt(20))
+                .sortBy("-d")
+                .select(col("b").eq("three"))
+                .retain("a");
+        assertEquals(
+                "Retain [a]\n" +
+                "  Sort [-d]\n" +
+                "    Csv " + file + " [a, d, c, b] where (c GT 20 AND b EQ three)",
+                lazy.explain()
+            );
+        assertEquals(Arrays.<Object>asList("golf", "foxtrot", "echo"), lazy.collect().col("a"));
+    }
+
+    @Test
+    public void testProjectionPruned() {
+        final LazyFrame<Object> lazy = df.lazy()
+                .select(col("c").gt(20))
+                .retain("a");
+        assertEquals(
+                "Retain [a]\n" +
+                "  Select c GT 20\n" +
+                "    Frame 7 rows",
+                lazy.explain()
+            );
+        final DataFrame<Object> result = lazy.collect();
+        assertEquals(Arrays.<Object>asList("a"), Arrays.asList(result.columns().toArray()));
+        assertEquals(Arrays.<Object>asList("charlie", "delta", "echo", "foxtrot", "golf"), result.col("a"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testFilterOnRetainedOutColumn() {
+        df.lazy().retain("a").select(col("b").eq("one")).collect();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testFilterOnDroppedColumn() {
+        LazyFrame.readCsv(file).drop("b").select(col("b").eq("one")).collect();
+    }
+
+    @Test
+    public void testFilterPushedBelowDrop() {
+        assertEquals(
+                "Drop [b]\n" +
+                "  Select c GT 20\n" +
+                "    Frame 7 rows",
+                df.lazy().drop("b").select(col("c").gt(20)).explain()
+            );
+    }
+
+    @Test
+    public void testColumnOrder() {
+        final DataFrame<Object> expected = df.select(col("c").gt(20)).retain("d", "a");
+        for (final LazyFrame<Object> lazy : Arrays.asList(LazyFrame.readCsv(file), df.lazy())) {
+            assertEquals(
+                    Arrays.asList(df.retain("d", "a").columns().toArray()),
+                    Arrays.asList(lazy.retain("d", "a").collect().columns().toArray())
+                );
+            final DataFrame<Object> actual = lazy.select(col("c").gt(20)).retain("d", "a").collect();
+            assertEquals(Arrays.asList(expected.columns().toArray()), Arrays.asList(actual.columns().toArray()));
+            assertEquals(expected.col("a"), actual.col("a"));
+        }
+    }
+
+    @Test
+    public void testDropPruned() {
+        assertEquals(
+                "Frame 7 rows [c]",
+                df.lazy().drop("a").retain("c").explain()
+            );
+        assertEquals(
+                "Aggregate count\n" +
+                "  Drop [a]\n" +
+                "    Frame 7 rows",
+                df.lazy().drop("a").count().explain()
+            );
+    }
+
+    @Test
+    public void testFilterNotPushedPastHead() {
+        final LazyFrame<Object> lazy = df.lazy()
+                .head(3)
+                .select(col("c").gt(10));
+        assertEquals(
+                "Select c GT 10\n" +
+                "  Head 3\n" +
+                "    Frame 7 rows",
+                lazy.explain()
+            );
+        assertEquals(Arrays.<Object>asList(20L, 30L), lazy.collect().col("c"));
+    }
+
+    @Test
+    public void testApplyFused() {
+        final LazyFrame<Object> lazy = df.lazy()
+                .retain("c")
+                .apply(new Function<Object, Object>() {
+                    @Override
+                    public Object apply(final Object value) {
+                        return Long.class.cast(value) + 1;
+                    }
+                })
+                .apply(new Function<Object, Object>() {
+                    @Override
+                    public Object apply(final Object value) {
+                        return Long.class.cast(value) * 2;
+                    }
+                });
+        assertEquals(
+                "Apply 2 functions\n" +
+                "  Frame 7 rows [c]",
+                lazy.explain()
+            );
+        assertEquals(
+                Arrays.<Object>asList(22L, 42L, 62L, 82L, 102L, 122L, 142L),
+                lazy.collect().col("c")
+            );
+    }
+
+    @Test
+    public void testPlanUnchanged() {
+        final LazyFrame<Object> lazy = df.lazy();
+        lazy.select(col("c").gt(20));
+        assertEquals(7, lazy.collect().length());
+    }
+
+    @Test
+    public void testReadCsvColumns()
+    throws Exception {
+        final List<Object> cols = Arrays.<Object>asList("d", "a");
+        final DataFrame<Object> result = Serialization.readCsv(
+                file, ",", NumberDefault.LONG_DEFAULT, null, true, cols, col("d").le(20));
+        assertEquals(Arrays.<Object>asList("a", "d"), Arrays.asList(result.columns().toArray()));
+        assertEquals(Arrays.<Object>asList("alpha", "bravo"), result.col("a"));
+        assertEquals(Double.class, result.types().get(1));
+    }
+
+    @Test
+    public void testReadCsvFilterBatches()
+    throws Exception {
+        final Random random = new Random(31);
+        final DataFrame<Object> data = new DataFrame<>("a", "b", "c");
+        for (int r = 0; r < 10000; r++) {
+            // b only has fractions after the first batches of rows
+            data.append(Arrays.<Object>asList(
+                    random.nextInt(10), r < 9000 ? random.nextInt(4) : random.nextInt(4) * 0.5,
+                    random.nextBoolean() ? "r" + r : null));
+        }
+        final File input = File.createTempFile(getClass().getName(), ".csv");
+        input.deleteOnExit();
+        data.writeCsv(input.getPath());
+
+        for (final boolean hasHeader : new boolean[] { true, false }) {
+            final List<Object> names = hasHeader ?
+                    Arrays.<Object>asList("b", "c") : Arrays.<Object>asList("V1", "V2");
+            final DataFrame<Object> expected = Serialization.readCsv(
+                    input.getPath(), ",", NumberDefault.LONG_DEFAULT, null, hasHeader)
+                .retain(names.toArray())
+                .select(col(names.get(0)).ge(1.5).or(col(names.get(1)).isNull()));
+            final DataFrame<Object> actual = Serialization.readCsv(
+                    input.getPath(), ",", NumberDefault.LONG_DEFAULT, null, hasHeader,
+                    names, col(names.get(0)).ge(1.5).or(col(names.get(1)).isNull()));
+            assertEquals(expected.index(), actual.index());
+            assertEquals(Arrays.asList(expected.columns().toArray()), Arrays.asList(actual.columns().toArray()));
+            assertEquals(expected.types(), actual.types());
+            for (int c = 0; c < expected.size(); c++) {
+                assertEquals(expected.col(c), actual.col(c));
+            }
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testReadCsvMissingColumn()
+    throws Exception {
+        Serialization.readCsv(file, ",", NumberDefault.LONG_DEFAULT, null, true,
+                Arrays.<Object>asList("z"), null);
+    }
+}
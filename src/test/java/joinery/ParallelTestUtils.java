@@ -0,0 +1,40 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import joinery.impl.Parallel;
+
+/**
+ * Runs operations split across a pool shared by all tests, with
+ * a threshold applying only to the calling thread so tests running
+ * concurrently are not affected.
+ */
+final class ParallelTestUtils {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private ParallelTestUtils() { }
+
+    static <T> T parallel(final int threshold, final Callable<T> task)
+    throws Exception {
+        return Parallel.call(POOL, threshold, task);
+    }
+}
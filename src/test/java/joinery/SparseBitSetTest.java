@@ -24,7 +24,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
 
 import joinery.impl.SparseBitSet;
 
@@ -229,4 +232,146 @@ public class SparseBitSetTest {
             assertEquals(count, bits.cardinality());
         }
     }
+
+    @Test
+    public void testCardinalityRepeated() {
+        bits.set(5);
+        bits.set(5);
+        bits.clear(6);
+        bits.set(0, 10);
+        assertEquals(10, bits.cardinality());
+        bits.clear(5);
+        bits.clear(5);
+        bits.flip(0, 100);
+        assertEquals(91, bits.cardinality());
+    }
+
+    @Test
+    public void testRanges() {
+        bits.set(60, 200);
+        bits.clear(63, 130);
+        bits.flip(120, 140);
+        final BitSet expected = new BitSet();
+        expected.set(60, 200);
+        expected.clear(63, 130);
+        expected.flip(120, 140);
+        assertArrayEquals(expected.stream().toArray(), bits.toIntArray());
+        assertEquals(expected.cardinality(), bits.cardinality());
+    }
+
+    private static SparseBitSet random(final Random random, final BitSet expected, final int max) {
+        final SparseBitSet bits = new SparseBitSet();
+        for (int i = 0; i < 2000; i++) {
+            // clusters of bits spread over several blocks
+            final int start = random.nextInt(max);
+            final int end = Math.min(max, start + random.nextInt(100));
+            bits.set(start, end);
+            expected.set(start, end);
+        }
+        return bits;
+    }
+
+    @Test
+    public void testBulkOperations() {
+        final Random random = new Random(41);
+        for (int op = 0; op < 4; op++) {
+            final BitSet a = new BitSet();
+            final BitSet b = new BitSet();
+            final SparseBitSet x = random(random, a, 3_000_000);
+            final SparseBitSet y = random(random, b, 1_000_000);
+            final SparseBitSet result;
+            final SparseBitSet copy;
+            switch (op) {
+                case 0:
+                    copy = SparseBitSet.and(x, y);
+                    result = x.and(y);
+                    a.and(b);
+                    break;
+                case 1:
+                    copy = SparseBitSet.or(x, y);
+                    result = x.or(y);
+                    a.or(b);
+                    break;
+                case 2:
+                    copy = SparseBitSet.xor(x, y);
+                    result = x.xor(y);
+                    a.xor(b);
+                    break;
+                default:
+                    copy = SparseBitSet.andNot(x, y);
+                    result = x.andNot(y);
+                    a.andNot(b);
+                    break;
+            }
+            assertArrayEquals(a.stream().toArray(), result.toIntArray());
+            assertArrayEquals(a.stream().toArray(), copy.toIntArray());
+            assertEquals(a.cardinality(), result.cardinality());
+            assertEquals(a.cardinality(), copy.cardinality());
+        }
+    }
+
+    @Test
+    public void testBulkOperationsShareNothing() {
+        final SparseBitSet other = new SparseBitSet();
+        other.set(10);
+        bits.or(other);
+        final SparseBitSet copy = SparseBitSet.or(other, new SparseBitSet());
+        other.set(11);
+        assertEquals("{10}", bits.toString());
+        assertEquals("{10}", copy.toString());
+    }
+
+    @Test
+    public void testForEach() {
+        bits.set(3);
+        bits.set(64, 66);
+        bits.set(1 << 20);
+        final List<Integer> indices = new ArrayList<>();
+        bits.forEach(new IntConsumer() {
+            @Override
+            public void accept(final int index) {
+                indices.add(index);
+            }
+        });
+        assertArrayEquals(new Object[] { 3, 64, 65, 1 << 20 }, indices.toArray());
+        assertArrayEquals(new int[] { 3, 64, 65, 1 << 20 }, bits.toIntArray());
+    }
+
+    @Test
+    public void testNextSetBitSkipsEmptyBlocks() {
+        final Random random = new Random(47);
+        for (int round = 0; round < 20; round++) {
+            final BitSet expected = new BitSet();
+            bits = new SparseBitSet();
+            for (int i = 0; i < 50; i++) {
+                final int index = random.nextInt(1 << (10 + round));
+                bits.set(index);
+                expected.set(index);
+            }
+            for (int i = 0; i < 1000; i++) {
+                final int index = random.nextInt(1 << (11 + round));
+                assertEquals(String.valueOf(index), expected.nextSetBit(index), bits.nextSetBit(index));
+            }
+            for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+                assertEquals(i, bits.nextSetBit(i));
+                assertEquals(expected.nextSetBit(i + 1), bits.nextSetBit(i + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testRankSelect() {
+        final Random random = new Random(43);
+        final BitSet expected = new BitSet();
+        bits = random(random, expected, 2_000_000);
+        final int[] indices = expected.stream().toArray();
+        for (int i = 0; i < indices.length; i += 97) {
+            assertEquals(indices[i], bits.select(i));
+            assertEquals(i, bits.rank(indices[i]));
+            assertEquals(i + 1, bits.rank(indices[i] + 1));
+        }
+        assertEquals(-1, bits.select(indices.length));
+        assertEquals(0, bits.rank(0));
+        assertEquals(indices.length, bits.rank(Integer.MAX_VALUE));
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery;
+
+import static joinery.Filters.col;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import joinery.impl.Block;
+import joinery.impl.BlockManager;
+import joinery.impl.ZoneMap;
+
+import org.junit.Test;
+
+public class ZoneMapTest {
+    @Test
+    public void testAppend() {
+        final Block<Object> block = Block.create(Long.class, 0);
+        for (int r = 0; r < ZoneMap.CHUNK_SIZE * 2 + 10; r++) {
+            block.add(r % 100 == 0 ? null : (long)r);
+        }
+        final ZoneMap zones = block.zones();
+        assertEquals(3, zones.chunks());
+        assertEquals(1.0, zones.min(0), 0.0);
+        assertEquals(ZoneMap.CHUNK_SIZE - 1, zones.max(0), 0.0);
+        assertEquals(ZoneMap.CHUNK_SIZE * 2, zones.min(2), 0.0);
+        assertEquals(ZoneMap.CHUNK_SIZE * 2 + 9, zones.max(2), 0.0);
+        assertEquals(41, zones.nulls(0));
+        assertEquals(1, zones.nulls(2));
+    }
+
+    @Test
+    public void testSetInvalidates() {
+        final Block<Object> block = Block.create(Double.class, 0);
+        block.add(1.0);
+        block.add(2.0);
+        block.set(0, 5.0);
+        assertNull(block.zones());
+        block.add(3.0);
+        assertNull(block.zones());
+    }
+
+    @Test
+    public void testCopy() {
+        final Block<Object> block = Block.create(Integer.class, 0);
+        block.add(3);
+        final Block<Object> copy = block.copy();
+        copy.add(7);
+        assertEquals(3.0, block.zones().max(0), 0.0);
+        assertEquals(7.0, copy.zones().max(0), 0.0);
+    }
+
+    @Test
+    public void testNotTracked() {
+        final Block<Object> strings = Block.create(null, 0);
+        strings.add("alpha");
+        assertNull(strings.zones());
+
+        final Block<Object> mixed = Block.create(null, 0);
+        mixed.add(new Date(0));
+        assertNotNull(mixed.zones());
+        mixed.add(1L);
+        assertNull(mixed.zones());
+    }
+
+    @Test
+    public void testDates() {
+        final DataFrame<Object> df = new DataFrame<>("date");
+        for (int r = 0; r < 10000; r++) {
+            df.append(Arrays.<Object>asList(new Date(r * 1000L)));
+        }
+        assertEquals(3, df.select(col("date").ge(new Date(9997000L))).length());
+        assertEquals(1, df.select(col("date").eq(new Date(5000000L))).length());
+        // other values never compare with dates
+        assertEquals(0, df.select(col("date").gt(0L)).length());
+    }
+
+    @Test
+    public void testLargeLongs() {
+        final DataFrame<Object> df = new DataFrame<>("value");
+        for (long v = Long.MAX_VALUE - 9000; v < Long.MAX_VALUE - 1; v++) {
+            df.append(Arrays.<Object>asList(v));
+        }
+        // equal as doubles but not as longs
+        assertEquals(1, df.select(col("value").eq(Long.MAX_VALUE - 2)).length());
+        assertEquals(0, df.select(col("value").gt(Long.MAX_VALUE - 2)).length());
+        assertEquals(1, df.select(col("value").ge(Long.MAX_VALUE - 2)).length());
+        assertEquals(1, df.select(col("value").le(Long.MAX_VALUE - 9000)).length());
+    }
+
+    private static ZoneMap zones(final DataFrame<Object> df, final int col)
+    throws Exception {
+        final Field data = DataFrame.class.getDeclaredField("data");
+        data.setAccessible(true);
+        return BlockManager.class.cast(data.get(df)).block(col).zones();
+    }
+
+    @Test
+    public void testSortKeepsZones()
+    throws Exception {
+        final int rows = ZoneMap.CHUNK_SIZE * 5;
+        final List<Long> values = new ArrayList<>(rows);
+        for (long v = 0; v < rows; v++) {
+            values.add(v);
+        }
+        Collections.shuffle(values, new Random(42));
+        final DataFrame<Object> df = new DataFrame<>("ts", "value");
+        for (final Long v : values) {
+            df.append(Arrays.<Object>asList(v, v.doubleValue()));
+        }
+        final long x = rows - ZoneMap.CHUNK_SIZE;
+        // every chunk of the shuffled rows overlaps the filter
+        assertTrue(zones(df, 0).max(0) > x);
+
+        final DataFrame<Object> sorted = df.sortBy("ts");
+        final ZoneMap zones = zones(sorted, 0);
+        assertNotNull(zones);
+        assertNotNull(zones(sorted, 1));
+        // so all but the last chunk of the sorted rows are skipped
+        for (int c = 0; c < zones.chunks() - 1; c++) {
+            assertTrue(zones.max(c) <= x);
+        }
+        final DataFrame<Object> selected = sorted.select(col("ts").gt(x));
+        assertEquals(ZoneMap.CHUNK_SIZE - 1, selected.length());
+        assertNotNull(zones(selected, 0));
+        assertNotNull(zones(sorted.head(10), 1));
+    }
+
+    @Test
+    public void testPromoteKeepsZones() {
+        Block<Object> block = Block.create(Long.class, 0);
+        block.add(5L);
+        block = block.promote(2.5);
+        block.add(2.5);
+        assertEquals(2.5, block.zones().min(0), 0.0);
+        assertEquals(5.0, block.zones().max(0), 0.0);
+    }
+}
@@ -140,8 +140,9 @@ extends Suite {
                     notifier.fireTestStarted(getDescription());
                     Object value = null;
                     try {
-                        final String name = String.format("%sDocTest", cls.name());
+                        final String name = String.format("%sDocTest", cls.name().replace(".", ""));
                         final String source =
+                            "import " + cls.containingPackage().name() + ".*;\n" +
                             "import " + cls.qualifiedName() + ";\n" +
                             "import " + cls.qualifiedName() + ".*;\n" +
                             "import java.util.*;\n" +
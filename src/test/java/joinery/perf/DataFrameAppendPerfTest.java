@@ -18,6 +18,8 @@
 
 package joinery.perf;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -45,4 +47,21 @@ public class DataFrameAppendPerfTest {
         System.out.printf("created %,d row data set (memory utilization %4.2f%%)\n",
                 df.length(), PerformanceTestUtils.memoryUtilization() * 100);
     }
+
+    @Test
+    @Category(PerformanceTests.class)
+    public void testBuilder() {
+        final DataFrame.Builder<Object> builder = new DataFrame.Builder<>(
+                Arrays.asList("name", "value", "category"), PerformanceTestUtils.MILLIONS);
+        for (int i = 0; i < PerformanceTestUtils.MILLIONS || PerformanceTestUtils.memoryUtilization() < 0.75 && i < 20 * PerformanceTestUtils.MILLIONS; i++) {
+            builder.append(PerformanceTestUtils.randomRow());
+            if (builder.length() % PerformanceTestUtils.MILLIONS == 0) {
+                System.out.printf("built %dm rows (memory utilization %4.2f%%)\n",
+                        builder.length() / PerformanceTestUtils.MILLIONS, PerformanceTestUtils.memoryUtilization() * 100);
+            }
+        }
+        final DataFrame<Object> df = builder.build();
+        System.out.printf("built %,d row data set (memory utilization %4.2f%%)\n",
+                df.length(), PerformanceTestUtils.memoryUtilization() * 100);
+    }
 }
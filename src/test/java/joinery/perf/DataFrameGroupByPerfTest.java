@@ -18,7 +18,14 @@
 
 package joinery.perf;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import joinery.DataFrame;
+import joinery.DataFrame.Aggregate;
+import joinery.impl.Aggregation;
 
 import org.junit.After;
 import org.junit.Test;
@@ -49,4 +56,26 @@ public class DataFrameGroupByPerfTest {
             grouped.var();
         }
     }
+
+    @Test
+    @Category(PerformanceTests.class)
+    public void testAgg() {
+        final DataFrame<Object> df = PerformanceTestUtils.randomData(0.75);
+        final Map<Object, List<Aggregate<Object, ?>>> aggregates = new LinkedHashMap<>();
+        aggregates.put("value", Arrays.<Aggregate<Object, ?>>asList(
+                new Aggregation.Count<Object>(),
+                new Aggregation.Sum<Object>(),
+                new Aggregation.Min<Object>(),
+                new Aggregation.Max<Object>(),
+                new Aggregation.Median<Object>(),
+                new Aggregation.Skew<Object>(),
+                new Aggregation.Kurtosis<Object>(),
+                new Aggregation.StdDev<Object>(),
+                new Aggregation.Variance<Object>()
+            ));
+        for (int i = 0; i < 10; i++) {
+            System.out.printf("aggregating %,d rows by category\n", df.length());
+            df.groupBy("category").agg(aggregates);
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+
+import joinery.DataFrame;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class DataFrameIterationPerfTest {
+    private static final int ROWS = 20_000;
+
+    @After
+    public void report()
+    throws Exception {
+        PerformanceTestUtils.displayMetricsIfAvailable();
+    }
+
+    private static DataFrame<Object> wideData(final int cols) {
+        final List<List<Object>> data = new ArrayList<>(cols);
+        for (int c = 0; c < cols; c++) {
+            final List<Object> column = new ArrayList<>(ROWS);
+            for (int r = 0; r < ROWS; r++) {
+                column.add((double)r * c);
+            }
+            data.add(column);
+        }
+        return new DataFrame<>(data);
+    }
+
+    private static double iterate(final DataFrame<Object> df) {
+        double sum = 0;
+        for (final ListIterator<List<Object>> it = df.iterrows(); it.hasNext(); ) {
+            for (final Object value : it.next()) {
+                sum += Double.class.cast(value);
+            }
+        }
+        return sum;
+    }
+
+    @Test
+    @Category(PerformanceTests.class)
+    public void test() {
+        for (int cols = 50; cols <= 800; cols *= 2) {
+            final DataFrame<Object> df = wideData(cols);
+            // warm up before measuring
+            iterate(df);
+            final long start = System.nanoTime();
+            iterate(df);
+            final double perCell = (System.nanoTime() - start) / (double)(ROWS * cols);
+            System.out.printf("iterated %,d rows x %,d columns (%.2f ns per value)\n", ROWS, cols, perCell);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Joinery -- Data frames for Java
+ * Copyright (c) 2014, 2015 IBM Corp.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package joinery.perf;
+
+import java.util.Arrays;
+
+import joinery.DataFrame;
+import joinery.DataFrame.JoinType;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class DataFrameJoinPerfTest {
+    @After
+    public void report()
+    throws Exception {
+        PerformanceTestUtils.displayMetricsIfAvailable();
+    }
+
+    @Test
+    @Category(PerformanceTests.class)
+    public void testJoinOn() {
+        final DataFrame<Object> df = PerformanceTestUtils.randomData(PerformanceTestUtils.MILLIONS);
+        // join columns are matched by position
+        final DataFrame<Object> values = new DataFrame<>("label", "value");
+        for (int i = 0; i < 100; i++) {
+            values.append(Arrays.<Object>asList(String.valueOf(i), i));
+        }
+        for (int i = 0; i < 10; i++) {
+            System.out.printf("joining %,d rows with %,d rows on value\n", df.length(), values.length());
+            df.joinOn(values, JoinType.INNER, "value");
+        }
+    }
+}
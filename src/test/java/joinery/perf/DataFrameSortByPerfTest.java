@@ -45,4 +45,14 @@ public class DataFrameSortByPerfTest {
             df.sortBy(key);
         }
     }
+
+    @Test
+    @Category(PerformanceTests.class)
+    public void testArgsortTake() {
+        final DataFrame<Object> df = PerformanceTestUtils.randomData(0.5);
+        for (int i = 0; i < 10; i++) {
+            System.out.printf("sorting %,d rows by category, -value, name\n", df.length());
+            df.take(df.argsort("category", "-value", "name"));
+        }
+    }
 }